@@ -16,6 +16,9 @@ public class GameController {
     private static final String MULTICAST_ADDRESS = "239.192.0.4";
     private static final int MULTICAST_PORT = 9192;
     private final Map<InetSocketAddress, Integer> processedJoins;
+    // Сетка занятости и множества свободных клеток в GameState не потокобезопасны:
+    // тик, вход игроков и таймауты меняют состояние только под этим замком
+    private final Object stateLock = new Object();
     private volatile GameState gameState;
     private volatile GameConfig config;
     private volatile NodeRole myRole;
@@ -86,18 +89,20 @@ public class GameController {
         this.myRole = NodeRole.MASTER;
         this.myId = playerIdCounter.getAndIncrement();
 
-        this.gameState = new GameState(config);
+        synchronized (stateLock) {
+            this.gameState = new GameState(config);
 
-        Player player = new Player(myId, playerName, NodeRole.MASTER);
-        gameState.addPlayer(player);
-        playerLastActivity.put(myId, System.currentTimeMillis());
+            Player player = new Player(myId, playerName, NodeRole.MASTER);
+            gameState.addPlayer(player);
+            playerLastActivity.put(myId, System.currentTimeMillis());
 
-        Snake snake = gameLogic.createSnakeForPlayer(gameState, myId);
-        if (snake != null) {
-            gameState.addSnake(snake);
-        }
+            Snake snake = gameLogic.createSnakeForPlayer(gameState, myId);
+            if (snake != null) {
+                gameState.addSnake(snake);
+            }
 
-        gameState.spawnFood();
+            gameState.spawnFood();
+        }
 
         if (!networkManager.isRunning()) {
             networkManager.start();
@@ -381,6 +386,12 @@ public class GameController {
     }
 
     private void gameTick() {
+        synchronized (stateLock) {
+            tick();
+        }
+    }
+
+    private void tick() {
         if (myRole != NodeRole.MASTER || gameState == null) {
             return;
         }
@@ -600,7 +611,10 @@ public class GameController {
         if (myRole != NodeRole.MASTER || gameState == null) return;
 
         try {
-            SnakesProto.GameAnnouncement announcement = buildAnnouncement();
+            SnakesProto.GameAnnouncement announcement;
+            synchronized (stateLock) {
+                announcement = buildAnnouncement();
+            }
 
             SnakesProto.GameMessage msg = SnakesProto.GameMessage.newBuilder()
                     .setMsgSeq(msgSeqCounter.getAndIncrement())
@@ -653,6 +667,28 @@ public class GameController {
             }
         }
 
+        if (myRole == NodeRole.MASTER && gameState != null) {
+            synchronized (stateLock) {
+                checkPlayerTimeouts(now, nodeTimeout);
+            }
+        }
+
+        if (myRole == NodeRole.DEPUTY && lastMasterActivity > 0) {
+            if (now - lastMasterActivity > nodeTimeout * 3) {
+                System.out.println("[GAME] MASTER timeout, promoting myself");
+                promoteToMaster();
+            }
+        }
+
+        if (myRole == NodeRole.NORMAL && lastMasterActivity > 0) {
+            if (now - lastMasterActivity > nodeTimeout * 5) {
+                System.out.println("[GAME] NORMAL: MASTER timeout, waiting...");
+                lastMasterActivity = now;
+            }
+        }
+    }
+
+    private void checkPlayerTimeouts(long now, long nodeTimeout) {
         if (myRole == NodeRole.MASTER && gameState != null) {
             List<Integer> timedOut = new ArrayList<>();
 
@@ -674,20 +710,6 @@ public class GameController {
                 handlePlayerTimeout(playerId);
             }
         }
-
-        if (myRole == NodeRole.DEPUTY && lastMasterActivity > 0) {
-            if (now - lastMasterActivity > nodeTimeout * 3) {
-                System.out.println("[GAME] MASTER timeout, promoting myself");
-                promoteToMaster();
-            }
-        }
-
-        if (myRole == NodeRole.NORMAL && lastMasterActivity > 0) {
-            if (now - lastMasterActivity > nodeTimeout * 5) {
-                System.out.println("[GAME] NORMAL: MASTER timeout, waiting...");
-                lastMasterActivity = now;
-            }
-        }
     }
 
     private void handlePlayerTimeout(int playerId) {
@@ -806,7 +828,9 @@ public class GameController {
             } else if (msg.hasAnnouncement()) {
                 handleAnnouncement(msg, sender);
             } else if (msg.hasJoin()) {
-                handleJoin(msg, sender);
+                synchronized (stateLock) {
+                    handleJoin(msg, sender);
+                }
             } else if (msg.hasSteer()) {
                 handleSteer(msg, sender);
             } else if (msg.hasState()) {
@@ -1153,6 +1177,12 @@ public class GameController {
     }
 
     private void handlePlayerLeave(int playerId) {
+        synchronized (stateLock) {
+            leave(playerId);
+        }
+    }
+
+    private void leave(int playerId) {
         if (gameState == null) return;
 
         Player player = gameState.getPlayer(playerId);
@@ -1276,7 +1306,7 @@ public class GameController {
                 .setGameName(gameName)
                 .setPlayers(playersBuilder.build())
                 .setConfig(protoConfig)
-                .setCanJoin(gameState.findFreeSquare() != null)
+                .setCanJoin(gameState.hasFreeSquare())
                 .build();
     }
 
@@ -1301,7 +1331,7 @@ public class GameController {
         }
 
         for (SnakesProto.GameState.Coord food : protoState.getFoodsList()) {
-            state.getFoods().add(new Coord(food.getX(), food.getY()));
+            state.addFood(new Coord(food.getX(), food.getY()));
         }
 
         for (SnakesProto.GamePlayer protoPlayer : protoState.getPlayers().getPlayersList()) {
@@ -25,7 +25,6 @@ public class GameLogic {
         int width = state.getConfig().getWidth();
         int height = state.getConfig().getHeight();
 
-        Map<Integer, Coord> newHeads = new HashMap<>();
         Map<Integer, Boolean> ateFood = new HashMap<>();
 
         for (Snake snake : state.getSnakes().values()) {
@@ -35,57 +34,45 @@ public class GameLogic {
                     oldHead.getY() + snake.getHeadDirection().getDy()
             ).normalize(width, height);
 
-            boolean ate = state.getFoods().contains(newHead);
+            boolean ate = state.removeFood(newHead);
             if (ate) {
-                state.getFoods().remove(newHead);
                 Player player = state.getPlayer(snake.getPlayerId());
                 if (player != null) {
                     player.addScore(1);
                 }
             }
 
-            newHeads.put(snake.getPlayerId(), newHead);
             ateFood.put(snake.getPlayerId(), ate);
         }
 
         for (Snake snake : state.getSnakes().values()) {
-            snake.move(width, height, ateFood.get(snake.getPlayerId()));
+            Coord oldTail = snake.move(width, height, ateFood.get(snake.getPlayerId()));
+            if (oldTail != null) {
+                state.vacate(oldTail);
+            }
         }
 
         Set<Integer> dead = new HashSet<>();
         Map<Integer, Integer> collisionPoints = new HashMap<>();
 
+        // Сетка сейчас содержит только тела (новые головы ещё не отмечены), так что занятая клетка под головой - столкновение
         for (Snake snake : state.getSnakes().values()) {
             Coord head = snake.getHead();
+            if (state.isOccupied(head)) {
+                dead.add(snake.getPlayerId());
 
-            for (Snake other : state.getSnakes().values()) {
-                List<Coord> cells = other.getAllCells(width, height);
-
-                for (int i = 0; i < cells.size(); i++) {
-                    if (cells.get(i).equals(head)) {
-                        if (other.getPlayerId() == snake.getPlayerId() && i == 0) {
-                            continue;
-                        }
-
-                        dead.add(snake.getPlayerId());
-
-                        if (other.getPlayerId() != snake.getPlayerId()) {
-                            collisionPoints.merge(other.getPlayerId(), 1, Integer::sum);
-                        }
-                        break;
-                    }
+                int owner = state.getOwner(head);
+                if (owner != snake.getPlayerId()) {
+                    collisionPoints.merge(owner, 1, Integer::sum);
                 }
             }
         }
 
-        Map<Coord, List<Integer>> headPositions = new HashMap<>();
-        for (Map.Entry<Integer, Coord> entry : newHeads.entrySet()) {
-            headPositions.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
-        }
-
-        for (List<Integer> ids : headPositions.values()) {
-            if (ids.size() > 1) {
-                dead.addAll(ids);
+        for (Snake snake : state.getSnakes().values()) {
+            int previous = state.occupy(snake.getHead(), snake.getPlayerId());
+            if (previous != GameState.NO_OWNER && !dead.contains(snake.getPlayerId())) {
+                dead.add(snake.getPlayerId());
+                dead.add(previous);
             }
         }
 
@@ -103,7 +90,7 @@ public class GameLogic {
             if (snake != null) {
                 for (Coord cell : snake.getAllCells(width, height)) {
                     if (random.nextBoolean()) {
-                        state.getFoods().add(cell);
+                        state.addFood(cell);
                     }
                 }
                 state.removeSnake(playerId);
@@ -133,8 +120,8 @@ public class GameLogic {
                 center.getY() + dir.opposite().getDy()
         ).normalize(state.getConfig().getWidth(), state.getConfig().getHeight());
 
-        state.getFoods().remove(center);
-        state.getFoods().remove(tailPos);
+        state.removeFood(center);
+        state.removeFood(tailPos);
 
         return new Snake(playerId, center, dir);
     }
@@ -0,0 +1,55 @@
+package org.example.model;
+
+import java.util.Random;
+
+class CellSet {
+    private final int[] cells;
+    private final int[] slots;
+    private int size;
+
+    CellSet(int capacity) {
+        this.cells = new int[capacity];
+        this.slots = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            cells[i] = i;
+            slots[i] = i;
+        }
+        this.size = capacity;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int cell) {
+        return slots[cell] >= 0;
+    }
+
+    void add(int cell) {
+        if (slots[cell] >= 0) {
+            return;
+        }
+        slots[cell] = size;
+        cells[size++] = cell;
+    }
+
+    // Последний элемент переносится на место удаляемого, поэтому порядок не сохраняется
+    void remove(int cell) {
+        int slot = slots[cell];
+        if (slot < 0) {
+            return;
+        }
+        int last = cells[--size];
+        cells[slot] = last;
+        slots[last] = slot;
+        slots[cell] = -1;
+    }
+
+    int sample(Random random) {
+        return cells[random.nextInt(size)];
+    }
+}
@@ -4,36 +4,144 @@ import org.example.game.NodeRole;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+// Сетка занятости и множества свободных клеток не потокобезопасны: мастер меняет
+// состояние только под замком GameController
 public class GameState {
+    public static final int NO_OWNER = -1;
+    private static final int SQUARE = 5;
+
     private final GameConfig config;
     private int stateOrder;
     private final Map<Integer, Snake> snakes;
     private final Set<Coord> foods;
+    private final Set<Coord> foodsView;
     private final Map<Integer, Player> players;
     private final Random random;
+    private final int[] occupancy;
+    private final int[] owners;
+    private final boolean[] foodCells;
+    private final CellSet freeCells;
+    private final int[] squareLoad;
+    private final CellSet freeSquares;
 
     public GameState(GameConfig config) {
         this.config = config;
         this.stateOrder = 0;
         this.snakes = new ConcurrentHashMap<>();
         this.foods = ConcurrentHashMap.newKeySet();
+        this.foodsView = Collections.unmodifiableSet(foods);
         this.players = new ConcurrentHashMap<>();
         this.random = new Random();
+        this.occupancy = new int[config.getWidth() * config.getHeight()];
+        this.owners = new int[config.getWidth() * config.getHeight()];
+        this.foodCells = new boolean[config.getWidth() * config.getHeight()];
+        this.freeCells = new CellSet(config.getWidth() * config.getHeight());
+        this.squareLoad = new int[config.getWidth() * config.getHeight()];
+        this.freeSquares = new CellSet(config.getWidth() * config.getHeight());
     }
 
     public GameConfig getConfig() { return config; }
     public int getStateOrder() { return stateOrder; }
     public void incrementStateOrder() { stateOrder++; }
     public Map<Integer, Snake> getSnakes() { return snakes; }
-    public Set<Coord> getFoods() { return foods; }
+    public Set<Coord> getFoods() { return foodsView; }
     public Map<Integer, Player> getPlayers() { return players; }
 
     public void addSnake(Snake snake) {
+        removeSnake(snake.getPlayerId());
+        for (Coord cell : snake.getAllCells(config.getWidth(), config.getHeight())) {
+            occupy(cell, snake.getPlayerId());
+        }
         snakes.put(snake.getPlayerId(), snake);
     }
 
     public void removeSnake(int playerId) {
-        snakes.remove(playerId);
+        Snake snake = snakes.remove(playerId);
+        if (snake != null) {
+            for (Coord cell : snake.getAllCells(config.getWidth(), config.getHeight())) {
+                vacate(cell);
+            }
+        }
+    }
+
+    private int index(Coord cell) {
+        return cell.getY() * config.getWidth() + cell.getX();
+    }
+
+    public boolean isOccupied(Coord cell) {
+        return occupancy[index(cell)] > 0;
+    }
+
+    public int getOwner(Coord cell) {
+        int index = index(cell);
+        return occupancy[index] > 0 ? owners[index] : NO_OWNER;
+    }
+
+    // Возвращает прежнего владельца клетки или NO_OWNER, если она была свободна
+    public int occupy(Coord cell, int playerId) {
+        int index = index(cell);
+        if (occupancy[index]++ > 0) {
+            return owners[index];
+        }
+        owners[index] = playerId;
+        freeCells.remove(index);
+        updateSquares(cell, 1);
+        return NO_OWNER;
+    }
+
+    public void vacate(Coord cell) {
+        int index = index(cell);
+        if (--occupancy[index] == 0) {
+            if (!foodCells[index]) {
+                freeCells.add(index);
+            }
+            updateSquares(cell, -1);
+        }
+    }
+
+    // squareLoad[i] - число занятых змеями клеток в квадрате 5x5 с левым верхним углом в клетке i
+    private void updateSquares(Coord cell, int delta) {
+        int width = config.getWidth();
+        int height = config.getHeight();
+        for (int dy = 0; dy < SQUARE; dy++) {
+            int row = (cell.getY() - dy + height) % height * width;
+            for (int dx = 0; dx < SQUARE; dx++) {
+                int start = row + (cell.getX() - dx + width) % width;
+                squareLoad[start] += delta;
+                if (delta > 0 && squareLoad[start] == 1) {
+                    freeSquares.remove(start);
+                }
+                else if (delta < 0 && squareLoad[start] == 0) {
+                    freeSquares.add(start);
+                }
+            }
+        }
+    }
+
+    public boolean hasFood(Coord cell) {
+        return foodCells[index(cell)];
+    }
+
+    public void addFood(Coord cell) {
+        int index = index(cell);
+        if (!foodCells[index]) {
+            foodCells[index] = true;
+            foods.add(cell);
+            freeCells.remove(index);
+        }
+    }
+
+    public boolean removeFood(Coord cell) {
+        int index = index(cell);
+        if (!foodCells[index]) {
+            return false;
+        }
+        foodCells[index] = false;
+        foods.remove(cell);
+        if (occupancy[index] == 0) {
+            freeCells.add(index);
+        }
+        return true;
     }
 
     public void addPlayer(Player player) {
@@ -59,68 +167,35 @@ public class GameState {
                 .count();
     }
 
-    public Set<Coord> getOccupiedCells() {
-        Set<Coord> occupied = new HashSet<>();
-        for (Snake snake : snakes.values()) {
-            occupied.addAll(snake.getAllCells(config.getWidth(), config.getHeight()));
-        }
-        return occupied;
+    int getFreeCellCount() {
+        return freeCells.size();
     }
 
+    int getFreeSquareCount() {
+        return freeSquares.size();
+    }
 
-    public Coord findFreeSquare() {
-        Set<Coord> occupied = getOccupiedCells();
-
-        List<Coord> candidates = new ArrayList<>();
-        for (int x = 0; x < config.getWidth(); x++) {
-            for (int y = 0; y < config.getHeight(); y++) {
-                if (isSquareFree(x, y, occupied)) {
-                    candidates.add(new Coord(x + 2, y + 2)); // Центр квадрата
-                }
-            }
-        }
+    public boolean hasFreeSquare() {
+        return !freeSquares.isEmpty();
+    }
 
-        if (candidates.isEmpty()) {
+    public Coord findFreeSquare() {
+        if (freeSquares.isEmpty()) {
             return null;
         }
 
-        return candidates.get(random.nextInt(candidates.size()));
-    }
-
-    private boolean isSquareFree(int startX, int startY, Set<Coord> occupied) {
-        for (int dx = 0; dx < 5; dx++) {
-            for (int dy = 0; dy < 5; dy++) {
-                Coord c = new Coord(startX + dx, startY + dy).normalize(config.getWidth(), config.getHeight());
-                if (occupied.contains(c)) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        int start = freeSquares.sample(random);
+        int width = config.getWidth();
+        return new Coord(start % width + SQUARE / 2, start / width + SQUARE / 2).normalize(width, config.getHeight()); // Центр квадрата
     }
 
 
     public void spawnFood() {
         int required = config.getFoodStatic() + getAliveSnakesCount();
-        Set<Coord> occupied = getOccupiedCells();
-        occupied.addAll(foods);
-
-        while (foods.size() < required) {
-            List<Coord> free = new ArrayList<>();
-            for (int x = 0; x < config.getWidth(); x++) {
-                for (int y = 0; y < config.getHeight(); y++) {
-                    Coord c = new Coord(x, y);
-                    if (!occupied.contains(c)) {
-                        free.add(c);
-                    }
-                }
-            }
-
-            if (free.isEmpty()) break;
 
-            Coord newFood = free.get(random.nextInt(free.size()));
-            foods.add(newFood);
-            occupied.add(newFood);
+        while (foods.size() < required && !freeCells.isEmpty()) {
+            int index = freeCells.sample(random);
+            addFood(new Coord(index % config.getWidth(), index / config.getWidth()));
         }
     }
 
@@ -133,10 +208,12 @@ public class GameState {
         copy.stateOrder = this.stateOrder;
 
         for (Snake snake : snakes.values()) {
-            copy.snakes.put(snake.getPlayerId(), snake.copy());
+            copy.addSnake(snake.copy());
         }
 
-        copy.foods.addAll(this.foods);
+        for (Coord food : foods) {
+            copy.addFood(food);
+        }
 
         for (Player player : players.values()) {
             Player pCopy = new Player(player.getId(), player.getName(), player.getRole());
@@ -41,6 +41,17 @@ public class Snake {
         return keyPoints.get(0);
     }
 
+    // Хвост — голова плюс сумма смещений ключевых точек, без обхода всех клеток
+    public Coord getTail(int width, int height) {
+        Coord head = keyPoints.get(0);
+        int x = head.getX();
+        int y = head.getY();
+        for (int i = 1; i < keyPoints.size(); i++) {
+            x += keyPoints.get(i).getX();
+            y += keyPoints.get(i).getY();
+        }
+        return new Coord(x, y).normalize(width, height);
+    }
 
     public List<Coord> getAllCells(int width, int height) {
         List<Coord> cells = new ArrayList<>();
@@ -70,11 +81,7 @@ public class Snake {
                 oldHead.getY() + headDirection.getDy()
         ).normalize(width, height);
 
-        Coord oldTail = null;
-        if (!ateFood) {
-            List<Coord> cells = getAllCells(width, height);
-            oldTail = cells.get(cells.size() - 1);
-        }
+        Coord oldTail = ateFood ? null : getTail(width, height);
 
         if (keyPoints.size() > 1) {
             Coord firstOffset = keyPoints.get(1);
@@ -0,0 +1,75 @@
+package org.example.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CellSetTest {
+
+    @Test
+    void startsFull() {
+        CellSet set = new CellSet(10);
+        assertEquals(10, set.size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(set.contains(i));
+        }
+    }
+
+    @Test
+    void addAndRemoveAreIdempotent() {
+        CellSet set = new CellSet(4);
+        set.remove(2);
+        set.remove(2);
+        assertEquals(3, set.size());
+        assertFalse(set.contains(2));
+        set.add(2);
+        set.add(2);
+        assertEquals(4, set.size());
+        assertTrue(set.contains(2));
+    }
+
+    @Test
+    void emptiesAfterRemovingEverything() {
+        CellSet set = new CellSet(3);
+        set.remove(0);
+        set.remove(2);
+        set.remove(1);
+        assertTrue(set.isEmpty());
+        set.add(1);
+        assertFalse(set.isEmpty());
+        assertEquals(1, set.sample(new Random(1)));
+    }
+
+    @Test
+    void matchesHashSetUnderRandomOperations() {
+        int capacity = 64;
+        CellSet set = new CellSet(capacity);
+        Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < capacity; i++) {
+            expected.add(i);
+        }
+        Random random = new Random(42);
+        for (int step = 0; step < 20000; step++) {
+            int cell = random.nextInt(capacity);
+            if (random.nextBoolean()) {
+                set.add(cell);
+                expected.add(cell);
+            } else {
+                set.remove(cell);
+                expected.remove(cell);
+            }
+            assertEquals(expected.size(), set.size());
+            assertEquals(expected.contains(cell), set.contains(cell));
+            if (!expected.isEmpty()) {
+                assertTrue(expected.contains(set.sample(random)));
+            }
+        }
+        for (int i = 0; i < capacity; i++) {
+            assertEquals(expected.contains(i), set.contains(i));
+        }
+    }
+}
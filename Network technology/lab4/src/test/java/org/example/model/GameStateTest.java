@@ -0,0 +1,95 @@
+package org.example.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameStateTest {
+
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 10;
+
+    @Test
+    void emptyFieldIsAllFree() {
+        GameState state = new GameState(new GameConfig(WIDTH, HEIGHT, 1, 100));
+        assertEquals(WIDTH * HEIGHT, state.getFreeCellCount());
+        assertEquals(WIDTH * HEIGHT, state.getFreeSquareCount());
+        assertTrue(state.hasFreeSquare());
+    }
+
+    @Test
+    void occupyReturnsPreviousOwner() {
+        GameState state = new GameState(new GameConfig(WIDTH, HEIGHT, 1, 100));
+        Coord cell = new Coord(3, 4);
+        assertEquals(GameState.NO_OWNER, state.occupy(cell, 1));
+        assertEquals(1, state.occupy(cell, 2));
+        assertEquals(1, state.getOwner(cell));
+        state.vacate(cell);
+        assertTrue(state.isOccupied(cell));
+        state.vacate(cell);
+        assertFalse(state.isOccupied(cell));
+        assertEquals(GameState.NO_OWNER, state.getOwner(cell));
+    }
+
+    @Test
+    void freeCountsMatchBruteForce() {
+        GameState state = new GameState(new GameConfig(WIDTH, HEIGHT, 1, 100));
+        int[] count = new int[WIDTH * HEIGHT];
+        boolean[] food = new boolean[WIDTH * HEIGHT];
+        Random random = new Random(7);
+        for (int step = 0; step < 5000; step++) {
+            int index = random.nextInt(WIDTH * HEIGHT);
+            Coord cell = new Coord(index % WIDTH, index / WIDTH);
+            int action = random.nextInt(4);
+            if (action < 2) {
+                state.occupy(cell, 1);
+                count[index]++;
+            } else if (action == 2 && count[index] > 0) {
+                state.vacate(cell);
+                count[index]--;
+            } else if (food[index]) {
+                assertTrue(state.removeFood(cell));
+                food[index] = false;
+            } else {
+                state.addFood(cell);
+                food[index] = true;
+            }
+            check(state, count, food);
+        }
+    }
+
+    private static void check(GameState state, int[] count, boolean[] food) {
+        int freeCells = 0;
+        int freeSquares = 0;
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            if (count[i] == 0 && !food[i]) {
+                freeCells++;
+            }
+            if (squareFree(count, i % WIDTH, i / WIDTH)) {
+                freeSquares++;
+            }
+        }
+        assertEquals(freeCells, state.getFreeCellCount());
+        assertEquals(freeSquares, state.getFreeSquareCount());
+        assertEquals(freeSquares > 0, state.hasFreeSquare());
+        if (freeSquares > 0) {
+            Coord center = state.findFreeSquare();
+            assertTrue(squareFree(count, center.getX() - 2 + WIDTH, center.getY() - 2 + HEIGHT));
+        } else {
+            assertNull(state.findFreeSquare());
+        }
+    }
+
+    private static boolean squareFree(int[] count, int x, int y) {
+        for (int dy = 0; dy < 5; dy++) {
+            for (int dx = 0; dx < 5; dx++) {
+                if (count[(y + dy) % HEIGHT * WIDTH + (x + dx) % WIDTH] > 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
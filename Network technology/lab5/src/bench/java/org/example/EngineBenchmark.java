@@ -0,0 +1,93 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+public class EngineBenchmark {
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int idle = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        if (args.length > 3) {
+            measure(args[3], connections, concurrency, idle);
+            System.exit(0);
+        }
+        // Каждый движок в своей JVM: иначе второй переиспользует слэбы BufferPool и кучу, разогретые первым
+        System.out.println("engine   conn/s   handshake p99 us  first byte p99 us  bytes per idle tunnel");
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        for (String engine : new String[]{"nio", "threads"}) {
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    EngineBenchmark.class.getName(), Integer.toString(connections), Integer.toString(concurrency),
+                    Integer.toString(idle), engine).inheritIO().start();
+            if (process.waitFor() != 0) {
+                throw new IOException(engine + " run exited with " + process.exitValue());
+            }
+        }
+    }
+
+    // Память простаивающих туннелей меряется до нагрузки, пока пул буферов пуст
+    private static void measure(String engine, int connections, int concurrency, int idle) throws Exception {
+        int echoPort = LoadGenerator.startEcho();
+        long baseline = idleMemory(echoPort, -1, idle);
+        Properties properties = new Properties();
+        properties.setProperty("engine", engine);
+        int proxyPort = LoadGenerator.startProxy(properties);
+        long perTunnel = idleMemory(echoPort, proxyPort, idle) - baseline;
+        LoadGenerator.Result churn = LoadGenerator.run(proxyPort, echoPort, connections, concurrency, 1);
+        System.out.printf("%-8s %-8.0f %-17d %-18d %d%n", engine, churn.connectionsPerSecond(),
+                churn.handshakePercentile(0.99), churn.firstBytePercentile(0.99), perTunnel);
+    }
+
+    private static long idleMemory(int echoPort, int proxyPort, int count) throws Exception {
+        List<Socket> sockets = new ArrayList<>(count);
+        long before = usedMemory();
+        try {
+            for (int i = 0; i < count; i++) {
+                sockets.add(proxyPort < 0 ? new Socket(InetAddress.getLoopbackAddress(), echoPort) : openTunnel(proxyPort, echoPort));
+            }
+            Thread.sleep(1000);
+            return (usedMemory() - before) / count;
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            Thread.sleep(1000);
+        }
+    }
+
+    private static Socket openTunnel(int proxyPort, int echoPort) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), proxyPort);
+        OutputStream out = socket.getOutputStream();
+        InputStream in = socket.getInputStream();
+        out.write(new byte[]{0x05, 0x01, 0x00, 0x05, 0x01, 0x00, 0x01, 127, 0, 0, 1, (byte) (echoPort >> 8), (byte) echoPort});
+        byte[] reply = in.readNBytes(12);
+        if (reply.length < 12 || reply[3] != 0x00) {
+            socket.close();
+            throw new IOException("CONNECT failed");
+        }
+        return socket;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+}
@@ -0,0 +1,189 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoadGenerator {
+    private static final int CHUNK = 65536;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int payload = args.length > 2 ? Integer.parseInt(args[2]) : 16384;
+        int proxyPort = args.length > 3 ? Integer.parseInt(args[3]) : startProxy();
+        int echoPort = startEcho();
+        Result result = run(proxyPort, echoPort, connections, concurrency, payload);
+        result.print(System.out);
+        System.exit(0);
+    }
+
+    public static Result run(int proxyPort, int echoPort, int connections, int concurrency, int payload) throws InterruptedException {
+        Result result = new Result(connections, concurrency, payload);
+        Semaphore permits = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                permits.acquire();
+                clients.submit(() -> {
+                    try {
+                        session(proxyPort, echoPort, payload, result);
+                    } catch (IOException e) {
+                        result.failures.incrementAndGet();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static void session(int proxyPort, int echoPort, int payload, Result result) throws IOException {
+        long started = System.nanoTime();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), proxyPort)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(new byte[]{0x05, 0x01, 0x00});
+            if (in.readNBytes(2).length < 2) {
+                throw new IOException("Greeting failed");
+            }
+            out.write(new byte[]{0x05, 0x01, 0x00, 0x01, 127, 0, 0, 1, (byte) (echoPort >> 8), (byte) echoPort});
+            byte[] reply = in.readNBytes(10);
+            if (reply.length < 10 || reply[1] != 0x00) {
+                throw new IOException("CONNECT failed");
+            }
+            result.handshake.record(Metrics.micros(started));
+            long sent = System.nanoTime();
+            byte[] chunk = new byte[Math.min(payload, CHUNK)];
+            Thread writer = Thread.ofVirtual().start(() -> {
+                try {
+                    for (int left = payload; left > 0; left -= chunk.length) {
+                        out.write(chunk, 0, Math.min(left, chunk.length));
+                    }
+                } catch (IOException ignored) {}
+            });
+            byte[] buffer = new byte[CHUNK];
+            long received = 0;
+            while (received < payload) {
+                int read = in.read(buffer);
+                if (read == -1) {
+                    throw new IOException("Tunnel closed early");
+                }
+                if (received == 0) {
+                    result.firstByte.record(Metrics.micros(sent));
+                }
+                received += read;
+            }
+            writer.join();
+            result.bytes.addAndGet(2 * received);
+            result.completed.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static int startProxy() throws IOException, InterruptedException {
+        return startProxy(new Properties());
+    }
+
+    static int startProxy(Properties properties) throws IOException, InterruptedException {
+        int port = freePort();
+        Config config = new Config(properties);
+        Thread boss = new Thread(() -> {
+            try {
+                Main.start(port, config);
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        });
+        boss.setDaemon(true);
+        boss.start();
+        Thread.sleep(500);
+        return port;
+    }
+
+    static int startEcho() throws IOException {
+        ServerSocket server = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().start(() -> {
+            while (true) {
+                try {
+                    Socket socket = server.accept();
+                    Thread.ofVirtual().start(() -> {
+                        byte[] chunk = new byte[CHUNK];
+                        try (socket; InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+                            int read;
+                            while ((read = in.read(chunk)) != -1) {
+                                out.write(chunk, 0, read);
+                            }
+                        } catch (IOException ignored) {}
+                    });
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        return server.getLocalPort();
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static class Result {
+        private final int connections;
+        private final int concurrency;
+        private final int payload;
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final Histogram handshake = new Histogram();
+        private final Histogram firstByte = new Histogram();
+        private long elapsedNanos;
+
+        private Result(int connections, int concurrency, int payload) {
+            this.connections = connections;
+            this.concurrency = concurrency;
+            this.payload = payload;
+        }
+
+        public double connectionsPerSecond() {
+            return completed.get() / (elapsedNanos / 1e9);
+        }
+
+        public double gigabitsPerSecond() {
+            return bytes.get() * 8 / (elapsedNanos / 1e9) / 1e9;
+        }
+
+        public long handshakePercentile(double percentile) {
+            return handshake.percentile(percentile);
+        }
+
+        public long firstBytePercentile(double percentile) {
+            return firstByte.percentile(percentile);
+        }
+
+        public void print(PrintStream out) {
+            out.printf("connections=%d concurrency=%d payload=%dB completed=%d failed=%d%n",
+                    connections, concurrency, payload, completed.get(), failures.get());
+            out.printf("%.0f conn/s  %.3f Gbit/s%n", connectionsPerSecond(), gigabitsPerSecond());
+            out.printf("handshake  us: p50=%d p99=%d p999=%d%n",
+                    handshake.percentile(0.5), handshake.percentile(0.99), handshake.percentile(0.999));
+            out.printf("first byte us: p50=%d p99=%d p999=%d%n",
+                    firstByte.percentile(0.5), firstByte.percentile(0.99), firstByte.percentile(0.999));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RelayBenchmark {
+    private static final int CHUNK = 65536;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        int sinkPort = startSink();
+        System.out.println("mode    connections  MB/s      bytes per CPU-second");
+        for (String mode : new String[]{"copy", "gather"}) {
+            Properties properties = new Properties();
+            properties.setProperty("workers", "1");
+            properties.setProperty("relay", mode);
+            int proxyPort = freePort();
+            MySelector proxy = new MySelector(proxyPort, new Config(properties));
+            Thread boss = new Thread(() -> {
+                try {
+                    proxy.start();
+                } catch (IOException e) {
+                    System.err.println(e);
+                }
+            });
+            boss.setDaemon(true);
+            boss.start();
+            Thread.sleep(500);
+            run(mode, proxyPort, sinkPort, connections, seconds);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, int proxyPort, int sinkPort, int connections, long seconds) throws Exception {
+        AtomicLong bytes = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long cpuBefore = workerCpuTime();
+        long start = System.nanoTime();
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Thread client = new Thread(() -> {
+                try (Socket socket = openTunnel(proxyPort, sinkPort)) {
+                    OutputStream out = socket.getOutputStream();
+                    byte[] chunk = new byte[CHUNK];
+                    while (System.nanoTime() < deadline) {
+                        out.write(chunk);
+                        bytes.addAndGet(CHUNK);
+                    }
+                } catch (IOException e) {
+                    System.err.println(e);
+                }
+            });
+            clients.add(client);
+            client.start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        double cpu = (workerCpuTime() - cpuBefore) / 1e9;
+        System.out.printf("%-7s %-12d %-9.1f %.3e%n", mode, connections, bytes.get() / elapsed / 1e6, bytes.get() / cpu);
+    }
+
+    private static Socket openTunnel(int proxyPort, int sinkPort) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), proxyPort);
+        OutputStream out = socket.getOutputStream();
+        InputStream in = socket.getInputStream();
+        out.write(new byte[]{0x05, 0x01, 0x00});
+        in.readNBytes(2);
+        out.write(new byte[]{0x05, 0x01, 0x00, 0x01, 127, 0, 0, 1, (byte) (sinkPort >> 8), (byte) sinkPort});
+        byte[] reply = in.readNBytes(10);
+        if (reply.length < 2 || reply[1] != 0x00) {
+            throw new IOException("CONNECT failed");
+        }
+        return socket;
+    }
+
+    private static long workerCpuTime() {
+        long total = 0;
+        for (long id : THREADS.getAllThreadIds()) {
+            var info = THREADS.getThreadInfo(id);
+            if (info != null && info.getThreadName().startsWith("socks-worker-")) {
+                total += THREADS.getThreadCpuTime(id);
+            }
+        }
+        return total;
+    }
+
+    private static int startSink() throws IOException {
+        ServerSocket server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = server.accept();
+                    Thread reader = new Thread(() -> {
+                        byte[] chunk = new byte[CHUNK];
+                        try (InputStream in = socket.getInputStream()) {
+                            while (in.read(chunk) != -1) {
+                            }
+                        } catch (IOException ignored) {}
+                    });
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server.getLocalPort();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AclBenchmark {
+    @Param({"1000", "50000"})
+    public int rules;
+
+    private Acl acl;
+    private InetAddress source;
+    private InetAddress[] addresses;
+    private String[] domains;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < rules / 2; i++) {
+            lines.add("deny to " + random.nextInt(224) + "." + random.nextInt(256) + "." + random.nextInt(256)
+                    + ".0/" + (8 + random.nextInt(17)) + " port " + random.nextInt(1024) + "-" + (1024 + random.nextInt(64512)));
+            lines.add("deny to host" + i + ".example" + random.nextInt(1000) + ".com");
+        }
+        lines.add("allow from 10.0.0.0/8");
+        Path file = Files.createTempFile("acl", ".rules");
+        Files.write(file, lines);
+        acl = new Acl(file, Long.MAX_VALUE / 2, false);
+        Files.delete(file);
+        source = InetAddress.getByName("10.1.2.3");
+        addresses = new InetAddress[1024];
+        domains = new String[1024];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[]{(byte) random.nextInt(224), (byte) random.nextInt(256),
+                    (byte) random.nextInt(256), (byte) random.nextInt(256)});
+            domains[i] = "www.host" + random.nextInt(rules) + ".example" + random.nextInt(1000) + ".com";
+        }
+    }
+
+    @Benchmark
+    public boolean address() {
+        next = (next + 1) & 1023;
+        return acl.allows(source, addresses[next], 443);
+    }
+
+    @Benchmark
+    public boolean domain() {
+        next = (next + 1) & 1023;
+        return acl.allows(source, domains[next], 443);
+    }
+}
@@ -0,0 +1,57 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParserBenchmark {
+    private static final int GREETING = 4;
+
+    @Param({"ipv4", "ipv6", "domain"})
+    public String target;
+
+    @Param({"true", "false"})
+    public boolean pipelined;
+
+    private ByteBuffer buffer;
+    private int end;
+
+    @Setup
+    public void setup() {
+        buffer = ByteBuffer.allocate(512);
+        buffer.put(new byte[]{0x05, 0x02, 0x00, 0x02});
+        buffer.put(new byte[]{0x05, 0x01, 0x00});
+        switch (target) {
+            case "ipv4" -> buffer.put((byte) 0x01).put(new byte[]{127, 0, 0, 1});
+            case "ipv6" -> buffer.put((byte) 0x04).put(new byte[16]);
+            default -> {
+                byte[] domain = "www.example.com".getBytes(StandardCharsets.US_ASCII);
+                buffer.put((byte) 0x03).put((byte) domain.length).put(domain);
+            }
+        }
+        buffer.putShort((short) 443);
+        end = buffer.position();
+    }
+
+    @Benchmark
+    public Socks5Parser.Result parse() throws IOException {
+        Socks5Parser parser = new Socks5Parser();
+        buffer.limit(pipelined ? end : GREETING).position(0);
+        parser.parse(buffer);
+        buffer.limit(end);
+        return parser.parse(buffer);
+    }
+}
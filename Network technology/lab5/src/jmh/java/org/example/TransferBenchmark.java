@@ -0,0 +1,87 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransferBenchmark {
+    @Param({"copy", "gather"})
+    public String relay;
+
+    @Param({"4096", "65536"})
+    public int chunk;
+
+    private Worker worker;
+    private Proxy proxy;
+    private SocketChannel source;
+    private SocketChannel sink;
+    private SelectionKey key;
+    private ByteBuffer outgoing;
+    private ByteBuffer incoming;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("relay", relay);
+        Config config = new Config(properties);
+        worker = new Worker(config, new DNSCache(0, 0), null, null, null, null, null, new Metrics());
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            source = SocketChannel.open(server.getLocalAddress());
+            SocketChannel client = server.accept();
+            SocketChannel remote = SocketChannel.open(server.getLocalAddress());
+            sink = server.accept();
+            client.configureBlocking(false);
+            remote.configureBlocking(false);
+            sink.configureBlocking(false);
+            proxy = new Proxy(client, remote, worker, null);
+            proxy.register(worker.getSelector());
+            key = client.keyFor(worker.getSelector());
+        }
+        outgoing = ByteBuffer.allocateDirect(chunk);
+        incoming = ByteBuffer.allocateDirect(1 << 20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        proxy.close();
+        source.close();
+        sink.close();
+        worker.getSelector().close();
+    }
+
+    @Benchmark
+    public long transfer() throws IOException {
+        outgoing.clear();
+        while (outgoing.hasRemaining()) {
+            source.write(outgoing);
+        }
+        long moved = 0;
+        while (moved < chunk) {
+            proxy.transfer(key, Integer.MAX_VALUE);
+            incoming.clear();
+            moved += sink.read(incoming);
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,350 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Acl {
+    private final Path path;
+    private final long reloadInterval;
+    private final boolean allowByDefault;
+    private volatile Rules rules;
+    private volatile long nextCheck;
+    private long lastModified;
+
+    public Acl(Path path, long reloadInterval, boolean allowByDefault) throws IOException {
+        this.path = path;
+        this.reloadInterval = reloadInterval;
+        this.allowByDefault = allowByDefault;
+        this.lastModified = Files.getLastModifiedTime(path).toMillis();
+        this.rules = compile(Files.readAllLines(path, StandardCharsets.UTF_8));
+        this.nextCheck = System.currentTimeMillis() + reloadInterval;
+    }
+
+    public static Acl create(Config config) throws IOException {
+        String rules = config.getString("acl.rules", "");
+        if (rules.isEmpty()) {
+            return null;
+        }
+        return new Acl(Path.of(rules), config.getLong("acl.reloadInterval", 5000),
+                config.getString("acl.default", "allow").equals("allow"));
+    }
+
+    public boolean allows(InetAddress source, InetAddress destination, int port) {
+        reloadIfChanged();
+        Rule rule = rules.match(source.getAddress(), destination.getAddress(), port, true);
+        return rule == null ? allowByDefault : rule.allow;
+    }
+
+    public boolean allows(InetAddress source, String domain, int port) {
+        reloadIfChanged();
+        Rule rule = rules.match(source.getAddress(), domain, port);
+        return rule == null ? allowByDefault : rule.allow;
+    }
+
+    public InetAddress[] filterResolved(InetAddress source, InetAddress[] resolved, int port) {
+        Rules current = rules;
+        byte[] from = source.getAddress();
+        List<InetAddress> allowed = new ArrayList<>(resolved.length);
+        for (InetAddress address : resolved) {
+            Rule rule = current.match(from, address.getAddress(), port, false);
+            if (rule == null || rule.allow) {
+                allowed.add(address);
+            }
+        }
+        return allowed.size() == resolved.length ? resolved : allowed.toArray(new InetAddress[0]);
+    }
+
+    private void reloadIfChanged() {
+        long now = System.currentTimeMillis();
+        if (now < nextCheck) {
+            return;
+        }
+        synchronized (this) {
+            if (now < nextCheck) {
+                return;
+            }
+            nextCheck = now + reloadInterval;
+            try {
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                if (modified != lastModified) {
+                    lastModified = modified;
+                    rules = compile(Files.readAllLines(path, StandardCharsets.UTF_8));
+                    Log.info("Reloaded " + rules.size + " ACL rules from " + path);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                Log.warn("ACL reload failed, keeping previous rules: " + e);
+            }
+        }
+    }
+
+    static Rules compile(List<String> lines) {
+        Rules compiled = new Rules();
+        int index = 0;
+        for (int number = 1; number <= lines.size(); number++) {
+            String line = lines.get(number - 1).trim();
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment).trim();
+            }
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                compiled.add(parse(index++, line.split("\\s+")));
+            } catch (IllegalArgumentException | UnknownHostException e) {
+                throw new IllegalArgumentException("ACL line " + number + ": " + e.getMessage(), e);
+            }
+        }
+        compiled.seal();
+        return compiled;
+    }
+
+    private static Target parse(int index, String[] tokens) throws UnknownHostException {
+        boolean allow = switch (tokens[0]) {
+            case "allow" -> true;
+            case "deny" -> false;
+            default -> throw new IllegalArgumentException("expected allow or deny, got " + tokens[0]);
+        };
+        if (tokens.length % 2 != 1) {
+            throw new IllegalArgumentException("expected keyword/value pairs");
+        }
+        byte[] source = null;
+        int sourceBits = 0;
+        String to = "*";
+        int portFrom = 0;
+        int portTo = 65535;
+        for (int i = 1; i < tokens.length; i += 2) {
+            String value = tokens[i + 1];
+            switch (tokens[i]) {
+                case "from" -> {
+                    int slash = value.indexOf('/');
+                    source = literal(slash < 0 ? value : value.substring(0, slash));
+                    sourceBits = slash < 0 ? source.length * 8 : Integer.parseInt(value.substring(slash + 1));
+                    if (sourceBits < 0 || sourceBits > source.length * 8) {
+                        throw new IllegalArgumentException("bad prefix length " + sourceBits);
+                    }
+                }
+                case "to" -> to = value.toLowerCase();
+                case "port" -> {
+                    int dash = value.indexOf('-');
+                    portFrom = Integer.parseInt(dash < 0 ? value : value.substring(0, dash));
+                    portTo = dash < 0 ? portFrom : Integer.parseInt(value.substring(dash + 1));
+                }
+                default -> throw new IllegalArgumentException("unknown keyword " + tokens[i]);
+            }
+        }
+        Rule rule = new Rule(index, allow, source, sourceBits, portFrom, portTo);
+        if (to.equals("*")) {
+            return new Target(rule, null, 0, null);
+        }
+        if (isLiteral(to)) {
+            int slash = to.indexOf('/');
+            byte[] network = literal(slash < 0 ? to : to.substring(0, slash));
+            int bits = slash < 0 ? network.length * 8 : Integer.parseInt(to.substring(slash + 1));
+            if (bits < 0 || bits > network.length * 8) {
+                throw new IllegalArgumentException("bad prefix length " + bits);
+            }
+            return new Target(rule, network, bits, null);
+        }
+        String domain = to.startsWith(".") ? to.substring(1) : to;
+        return new Target(rule, null, 0, domain);
+    }
+
+    private static boolean isLiteral(String value) {
+        if (value.indexOf(':') >= 0) {
+            return true;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && c != '.' && c != '/') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] literal(String value) throws UnknownHostException {
+        if (!isLiteral(value)) {
+            throw new IllegalArgumentException("not an IP address: " + value);
+        }
+        return InetAddress.getByName(value).getAddress();
+    }
+
+    private record Target(Rule rule, byte[] network, int bits, String domain) {
+    }
+
+    private static class Rule {
+        private final int index;
+        private final boolean allow;
+        private final byte[] source;
+        private final int sourceBits;
+        private final int portFrom;
+        private final int portTo;
+
+        private Rule(int index, boolean allow, byte[] source, int sourceBits, int portFrom, int portTo) {
+            this.index = index;
+            this.allow = allow;
+            this.source = source;
+            this.sourceBits = sourceBits;
+            this.portFrom = portFrom;
+            this.portTo = portTo;
+        }
+
+        private boolean matches(byte[] from, int port) {
+            if (port < portFrom || port > portTo) {
+                return false;
+            }
+            if (source == null) {
+                return true;
+            }
+            if (from.length != source.length) {
+                return false;
+            }
+            int bytes = sourceBits >> 3;
+            for (int i = 0; i < bytes; i++) {
+                if (from[i] != source[i]) {
+                    return false;
+                }
+            }
+            int rest = sourceBits & 7;
+            if (rest == 0) {
+                return true;
+            }
+            int mask = 0xFF << (8 - rest) & 0xFF;
+            return (from[bytes] & mask) == (source[bytes] & mask);
+        }
+    }
+
+    static class Rules {
+        private static final Rule[] NONE = new Rule[0];
+        private final List<Rule> anyList = new ArrayList<>();
+        private final IpNode ipv4 = new IpNode();
+        private final IpNode ipv6 = new IpNode();
+        private final DomainNode domains = new DomainNode();
+        private Rule[] any = NONE;
+        private int size = 0;
+
+        private void add(Target target) {
+            size++;
+            if (target.network != null) {
+                IpNode node = target.network.length == 4 ? ipv4 : ipv6;
+                for (int bit = 0; bit < target.bits; bit++) {
+                    int b = target.network[bit >> 3] >> (7 - (bit & 7)) & 1;
+                    if (node.children[b] == null) {
+                        node.children[b] = new IpNode();
+                    }
+                    node = node.children[b];
+                }
+                if (node.list == null) {
+                    node.list = new ArrayList<>(1);
+                }
+                node.list.add(target.rule);
+            }
+            else if (target.domain != null) {
+                DomainNode node = domains;
+                String[] labels = target.domain.split("\\.");
+                for (int i = labels.length - 1; i >= 0; i--) {
+                    node = node.children.computeIfAbsent(labels[i], label -> new DomainNode());
+                }
+                if (node.list == null) {
+                    node.list = new ArrayList<>(1);
+                }
+                node.list.add(target.rule);
+            }
+            else {
+                anyList.add(target.rule);
+            }
+        }
+
+        private void seal() {
+            any = anyList.toArray(NONE);
+            ipv4.seal();
+            ipv6.seal();
+            domains.seal();
+        }
+
+        Rule match(byte[] source, byte[] destination, int port, boolean includeAny) {
+            Rule best = includeAny ? scan(any, null, source, port) : null;
+            IpNode node = destination.length == 4 ? ipv4 : ipv6;
+            int bits = destination.length * 8;
+            for (int bit = 0; node != null; bit++) {
+                best = scan(node.rules, best, source, port);
+                if (bit == bits) {
+                    break;
+                }
+                node = node.children[destination[bit >> 3] >> (7 - (bit & 7)) & 1];
+            }
+            return best;
+        }
+
+        Rule match(byte[] source, String domain, int port) {
+            Rule best = scan(any, null, source, port);
+            DomainNode node = domains;
+            int end = domain.endsWith(".") ? domain.length() - 1 : domain.length();
+            while (end > 0) {
+                int start = domain.lastIndexOf('.', end - 1) + 1;
+                node = node.children.get(domain.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                best = scan(node.rules, best, source, port);
+                end = start - 1;
+            }
+            return best;
+        }
+
+        private static Rule scan(Rule[] rules, Rule best, byte[] source, int port) {
+            for (Rule rule : rules) {
+                if (best != null && rule.index > best.index) {
+                    break;
+                }
+                if (rule.matches(source, port)) {
+                    return rule;
+                }
+            }
+            return best;
+        }
+    }
+
+    private static class IpNode {
+        private final IpNode[] children = new IpNode[2];
+        private List<Rule> list;
+        private Rule[] rules = Rules.NONE;
+
+        private void seal() {
+            if (list != null) {
+                rules = list.toArray(Rules.NONE);
+                list = null;
+            }
+            for (IpNode child : children) {
+                if (child != null) {
+                    child.seal();
+                }
+            }
+        }
+    }
+
+    private static class DomainNode {
+        private final Map<String, DomainNode> children = new HashMap<>();
+        private List<Rule> list;
+        private Rule[] rules = Rules.NONE;
+
+        private void seal() {
+            if (list != null) {
+                rules = list.toArray(Rules.NONE);
+                list = null;
+            }
+            for (DomainNode child : children.values()) {
+                child.seal();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+public class Bind {
+    private final SocketChannel client;
+    private final Worker worker;
+    private final ServerSocketChannel listener;
+    private final InetAddress expected;
+    private final Credentials.User user;
+    private final Timers.Timer deadline;
+    private final ByteBuffer probe = ByteBuffer.allocate(1);
+    private boolean closed = false;
+
+    public Bind(SocketChannel client, Worker worker, InetAddress expected, Credentials.User user) throws IOException {
+        this.client = client;
+        this.user = user;
+        this.worker = worker;
+        this.expected = expected == null || expected.isAnyLocalAddress() ? null : expected;
+        InetAddress local = ((InetSocketAddress) client.getLocalAddress()).getAddress();
+        listener = ServerSocketChannel.open();
+        listener.configureBlocking(false);
+        listener.bind(new InetSocketAddress(local, 0), 1);
+        deadline = worker.getTimers().schedule(worker.getBindTimeout(), () -> fail(Connect.GENERAL_FAILURE));
+    }
+
+    public InetSocketAddress getBoundAddress() throws IOException {
+        return (InetSocketAddress) listener.getLocalAddress();
+    }
+
+    public void register(Selector selector) throws IOException {
+        listener.register(selector, SelectionKey.OP_ACCEPT, this);
+        client.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    public void accept(SelectionKey key) throws IOException {
+        SocketChannel inbound;
+        while ((inbound = listener.accept()) != null) {
+            InetSocketAddress peer = (InetSocketAddress) inbound.getRemoteAddress();
+            if (expected != null && !expected.equals(peer.getAddress())) {
+                inbound.close();
+                continue;
+            }
+            deadline.cancel();
+            closed = true;
+            listener.close();
+            inbound.configureBlocking(false);
+            client.write(ByteBuffer.wrap(Connect.reply(Connect.SUCCEEDED, peer)));
+            new Proxy(client, inbound, worker, user).register(key.selector());
+            return;
+        }
+    }
+
+    public void read(SelectionKey key) throws IOException {
+        probe.clear();
+        int read = client.read(probe);
+        if (read == -1) {
+            close();
+        }
+        else if (read > 0) {
+            fail(Connect.GENERAL_FAILURE);
+        }
+    }
+
+    private void fail(byte reply) {
+        try {
+            client.write(ByteBuffer.wrap(Connect.reply(reply, new InetSocketAddress(0))));
+        } catch (IOException ignored) {}
+        close();
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        deadline.cancel();
+        worker.getMetrics().activeClients.decrement();
+        try {
+            listener.close();
+        } catch (IOException ignored) {}
+        try {
+            client.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,98 @@
+package org.example;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class BufferPool {
+    private static final int[] SIZE_CLASSES = {512, 4096, 32768, 65536};
+    private static final int SLAB_SIZE = 1 << 20;
+    private static final Cleaner CLEANER = Cleaner.create();
+    private final ArrayDeque<ByteBuffer>[] free;
+    private final boolean leakDetection;
+    private final Map<ByteBuffer, Lease> leases = new IdentityHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        free = (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    public ByteBuffer acquire(int size, Object owner) {
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer;
+        if (sizeClass < 0) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        else {
+            if (free[sizeClass].isEmpty()) {
+                allocateSlab(sizeClass);
+            }
+            buffer = free[sizeClass].pollFirst();
+        }
+        if (leakDetection) {
+            Lease lease = new Lease(new Throwable("Buffer of " + size + " bytes acquired by " + owner.getClass().getSimpleName()));
+            lease.cleanable = CLEANER.register(owner, lease);
+            leases.put(buffer, lease);
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (leakDetection) {
+            Lease lease = leases.remove(buffer);
+            if (lease == null) {
+                throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+            }
+            lease.released.set(true);
+            lease.cleanable.clean();
+        }
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < 0 || SIZE_CLASSES[sizeClass] != buffer.capacity()) {
+            return;
+        }
+        buffer.clear();
+        free[sizeClass].addFirst(buffer);
+    }
+
+    private void allocateSlab(int sizeClass) {
+        int size = SIZE_CLASSES[sizeClass];
+        ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+        for (int offset = 0; offset < SLAB_SIZE; offset += size) {
+            free[sizeClass].addLast(slab.slice(offset, size));
+        }
+    }
+
+    private static int sizeClass(int size) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (size <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class Lease implements Runnable {
+        private final Throwable trace;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private Cleaner.Cleanable cleanable;
+
+        private Lease(Throwable trace) {
+            this.trace = trace;
+        }
+
+        @Override
+        public void run() {
+            if (!released.get()) {
+                Log.error("LEAK: pooled buffer was never released");
+                trace.printStackTrace();
+            }
+        }
+    }
+}
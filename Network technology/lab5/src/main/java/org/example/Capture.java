@@ -0,0 +1,148 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Capture {
+    static final int SLOT = 4096;
+    static final int HEADER = 32;
+    static final byte OPEN = 0;
+    static final byte UPSTREAM = 1;
+    static final byte DOWNSTREAM = 2;
+    static final byte CLOSE = 3;
+    private static final byte[] EMPTY = new byte[0];
+    private final Acl rules;
+    private final int limit;
+    private final BlockingQueue<Record> queue;
+    private final MappedByteBuffer ring;
+    private final int slots;
+    private final Metrics metrics;
+    private final AtomicLong flows = new AtomicLong();
+    private long sequence = 0;
+
+    private Capture(Acl rules, Path file, long size, Config config, Metrics metrics) throws IOException {
+        this.rules = rules;
+        this.metrics = metrics;
+        this.limit = config.getInt("capture.bytes", 65536);
+        this.queue = new ArrayBlockingQueue<>(config.getInt("capture.queue", 4096));
+        this.slots = (int) Math.min(Integer.MAX_VALUE, size / SLOT);
+        if (slots < 1) {
+            throw new IllegalArgumentException("capture.fileSize must hold at least one " + SLOT + "-byte slot");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ring = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * SLOT);
+        }
+    }
+
+    public static Capture create(Config config, Metrics metrics) throws IOException {
+        String rules = config.getString("capture.rules", "");
+        if (rules.isEmpty()) {
+            return null;
+        }
+        Path file = Path.of(config.getString("capture.dir", "."), "capture-" + ProcessHandle.current().pid() + ".ring");
+        Capture capture = new Capture(new Acl(Path.of(rules), config.getLong("capture.reloadInterval", 5000), false),
+                file, config.getLong("capture.fileSize", 64L << 20), config, metrics);
+        Thread writer = new Thread(capture::drain, "socks-capture");
+        writer.setDaemon(true);
+        writer.start();
+        Log.info("Capturing selected tunnels to " + file);
+        return capture;
+    }
+
+    public Flow open(InetAddress source, InetAddress destination, String domain, int port, String description) {
+        if (domain != null ? !rules.allows(source, domain, port) : !rules.allows(source, destination, port)) {
+            return null;
+        }
+        Flow flow = new Flow(flows.incrementAndGet());
+        submit(new Record(flow.id, OPEN, 0, description.getBytes(StandardCharsets.UTF_8)));
+        return flow;
+    }
+
+    private void submit(Record record) {
+        if (!queue.offer(record)) {
+            metrics.captureDropped.increment();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            try {
+                write(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void write(Record record) {
+        int written = 0;
+        do {
+            int length = Math.min(record.data.length - written, SLOT - HEADER);
+            int base = (int) (sequence % slots) * SLOT;
+            ring.putLong(base, 0);
+            ring.putLong(base + 8, record.flow);
+            ring.putLong(base + 16, record.time);
+            ring.putInt(base + 24, record.offset + written);
+            ring.putShort(base + 28, (short) length);
+            ring.put(base + 30, record.type);
+            ring.put(base + HEADER, record.data, written, length);
+            ring.putLong(base, ++sequence);
+            written += length;
+        } while (written < record.data.length);
+    }
+
+    private record Record(long flow, byte type, int offset, long time, byte[] data) {
+        private Record(long flow, byte type, int offset, byte[] data) {
+            this(flow, type, offset, System.currentTimeMillis(), data);
+        }
+    }
+
+    public class Flow {
+        private final long id;
+        private int upstream = 0;
+        private int downstream = 0;
+
+        private Flow(long id) {
+            this.id = id;
+        }
+
+        public void record(boolean up, ByteBuffer[] buffers, long read) {
+            int offset = up ? upstream : downstream;
+            int length = (int) Math.min(read, limit - offset);
+            if (length <= 0) {
+                return;
+            }
+            byte[] data = new byte[length];
+            int copied = 0;
+            for (ByteBuffer buffer : buffers) {
+                int n = Math.min(buffer.position(), length - copied);
+                buffer.get(0, data, copied, n);
+                copied += n;
+                if (copied == length) {
+                    break;
+                }
+            }
+            if (up) {
+                upstream += length;
+            }
+            else {
+                downstream += length;
+            }
+            submit(new Record(id, up ? UPSTREAM : DOWNSTREAM, offset, data));
+        }
+
+        public void close() {
+            submit(new Record(id, CLOSE, 0, EMPTY));
+        }
+    }
+}
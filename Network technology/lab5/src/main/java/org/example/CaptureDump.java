@@ -0,0 +1,100 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CaptureDump {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: CaptureDump <capture-*.ring> [output directory]");
+            System.exit(2);
+        }
+        Path out = args.length > 1 ? Path.of(args[1]) : null;
+        if (out != null) {
+            Files.createDirectories(out);
+        }
+        for (Flow flow : read(Path.of(args[0])).values()) {
+            System.out.println(flow);
+            if (out != null) {
+                Files.write(out.resolve("flow-" + flow.id + ".up"), flow.upstream.toByteArray());
+                Files.write(out.resolve("flow-" + flow.id + ".down"), flow.downstream.toByteArray());
+            }
+        }
+    }
+
+    static Map<Long, Flow> read(Path file) throws IOException {
+        MappedByteBuffer ring;
+        try (FileChannel channel = FileChannel.open(file)) {
+            ring = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size() / Capture.SLOT * Capture.SLOT);
+        }
+        List<Integer> slots = new ArrayList<>();
+        for (int base = 0; base < ring.capacity(); base += Capture.SLOT) {
+            int length = ring.getShort(base + 28);
+            if (ring.getLong(base) != 0 && length >= 0 && length <= Capture.SLOT - Capture.HEADER) {
+                slots.add(base);
+            }
+        }
+        slots.sort(Comparator.comparingLong(ring::getLong));
+        Map<Long, Flow> flows = new LinkedHashMap<>();
+        for (int base : slots) {
+            long id = ring.getLong(base + 8);
+            Flow flow = flows.computeIfAbsent(id, Flow::new);
+            byte[] data = new byte[ring.getShort(base + 28)];
+            ring.get(base + Capture.HEADER, data);
+            int offset = ring.getInt(base + 24);
+            switch (ring.get(base + 30)) {
+                case Capture.OPEN -> {
+                    flow.opened = ring.getLong(base + 16);
+                    flow.description = new String(data, StandardCharsets.UTF_8);
+                }
+                case Capture.UPSTREAM -> flow.append(flow.upstream, offset, data);
+                case Capture.DOWNSTREAM -> flow.append(flow.downstream, offset, data);
+                case Capture.CLOSE -> flow.closed = true;
+                default -> {}
+            }
+        }
+        return flows;
+    }
+
+    static class Flow {
+        private final long id;
+        private final ByteArrayOutputStream upstream = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream downstream = new ByteArrayOutputStream();
+        private long opened = 0;
+        private String description = "?";
+        private boolean closed = false;
+        private long missing = 0;
+
+        private Flow(long id) {
+            this.id = id;
+        }
+
+        private void append(ByteArrayOutputStream stream, int offset, byte[] data) {
+            if (offset > stream.size()) {
+                missing += offset - stream.size();
+                stream.writeBytes(new byte[offset - stream.size()]);
+            }
+            if (offset == stream.size()) {
+                stream.writeBytes(data);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "flow " + id + " " + (opened == 0 ? "?" : Instant.ofEpochMilli(opened)) + " " + description
+                    + " up=" + upstream.size() + " down=" + downstream.size()
+                    + (missing > 0 ? " missing=" + missing : "") + (closed ? " closed" : "");
+        }
+    }
+}
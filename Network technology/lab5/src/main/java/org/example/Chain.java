@@ -0,0 +1,149 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Chain {
+    private final Parent[] parents;
+    private final AtomicInteger next = new AtomicInteger();
+    private final long healthInterval;
+    private final int healthTimeout;
+    private final int maxFailures;
+
+    private Chain(Parent[] parents, Config config) {
+        this.parents = parents;
+        this.healthInterval = config.getLong("chain.healthInterval", 5000);
+        this.healthTimeout = config.getInt("chain.healthTimeout", 2000);
+        this.maxFailures = config.getInt("chain.maxFailures", 3);
+    }
+
+    public static Chain create(Config config) {
+        List<Parent> parents = new ArrayList<>();
+        for (String entry : config.getString("chain.parents", "").split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            String host = entry.startsWith("[") ? entry.substring(1, colon - 1) : entry.substring(0, colon);
+            parents.add(new Parent(new InetSocketAddress(host, Integer.parseInt(entry.substring(colon + 1)))));
+        }
+        if (parents.isEmpty()) {
+            return null;
+        }
+        Chain chain = new Chain(parents.toArray(new Parent[0]), config);
+        Thread health = new Thread(chain::checkHealth, "socks-chain-health");
+        health.setDaemon(true);
+        health.start();
+        return chain;
+    }
+
+    public int size() {
+        return parents.length;
+    }
+
+    // tried - родители, уже отказавшие этому запросу; хотя бы один должен остаться не в нём
+    public Parent choose(Set<Parent> tried) {
+        Parent best = pick(true, tried);
+        if (best == null) {
+            best = pick(false, tried);
+        }
+        best.outstanding.incrementAndGet();
+        return best;
+    }
+
+    private Parent pick(boolean healthyOnly, Set<Parent> tried) {
+        int start = Math.floorMod(next.getAndIncrement(), parents.length);
+        Parent best = null;
+        for (int i = 0; i < parents.length; i++) {
+            Parent parent = parents[(start + i) % parents.length];
+            if ((healthyOnly && !parent.healthy) || tried.contains(parent)) {
+                continue;
+            }
+            if (best == null || parent.outstanding.get() < best.outstanding.get()) {
+                best = parent;
+            }
+        }
+        return best;
+    }
+
+    public void failed(Parent parent) {
+        if (parent.failures.incrementAndGet() >= maxFailures && parent.healthy) {
+            parent.healthy = false;
+            Log.warn("Parent " + parent.address + " ejected after " + maxFailures + " failures");
+        }
+    }
+
+    public void succeeded(Parent parent) {
+        parent.failures.set(0);
+    }
+
+    private void checkHealth() {
+        while (true) {
+            try {
+                Thread.sleep(healthInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Parent parent : parents) {
+                if (probe(parent.address)) {
+                    parent.failures.set(0);
+                    if (!parent.healthy) {
+                        parent.healthy = true;
+                        Log.info("Parent " + parent.address + " is healthy again");
+                    }
+                }
+                else {
+                    failed(parent);
+                }
+            }
+        }
+    }
+
+    private boolean probe(InetSocketAddress address) {
+        try (Socket socket = new Socket()) {
+            socket.connect(address, healthTimeout);
+            socket.setSoTimeout(healthTimeout);
+            socket.getOutputStream().write(new byte[]{0x05, 0x01, 0x00});
+            InputStream in = socket.getInputStream();
+            return Arrays.equals(in.readNBytes(2), new byte[]{0x05, 0x00});
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void write(StringBuilder out) {
+        for (Parent parent : parents) {
+            out.append("socks_parent_outstanding{parent=\"").append(parent.address).append("\"} ")
+                    .append(parent.outstanding.get()).append('\n');
+            out.append("socks_parent_healthy{parent=\"").append(parent.address).append("\"} ")
+                    .append(parent.healthy ? 1 : 0).append('\n');
+        }
+    }
+
+    public static class Parent {
+        private final InetSocketAddress address;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile boolean healthy = true;
+
+        private Parent(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        public void release() {
+            outstanding.decrementAndGet();
+        }
+    }
+}
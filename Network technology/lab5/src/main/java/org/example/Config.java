@@ -0,0 +1,39 @@
+package org.example;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+public class Config {
+    private final Properties properties = new Properties();
+
+    public Config() {
+    }
+
+    public Config(Properties properties) {
+        this.properties.putAll(properties);
+    }
+
+    public Config(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            properties.load(in);
+        }
+    }
+
+    public String getString(String key, String defaultValue) {
+        return System.getProperty("socks." + key, properties.getProperty(key, defaultValue)).trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return Integer.parseInt(getString(key, Integer.toString(defaultValue)));
+    }
+
+    public long getLong(String key, long defaultValue) {
+        return Long.parseLong(getString(key, Long.toString(defaultValue)));
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(key, Boolean.toString(defaultValue)));
+    }
+}
@@ -6,129 +6,409 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.net.InetSocketAddress;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.nio.channels.SelectionKey;
+import java.net.Inet6Address;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class Connect {
     private SocketChannel client;
     private  Selector selector;
-    private int MAXSIZE = 512;
-    private  ByteBuffer buffer = ByteBuffer.allocate(MAXSIZE);
-    private SocketChannel remote = null;
+    private byte[] early;
+    private boolean byName = false;
+    private Socks5Parser request;
+    private ParentHandshake parent;
+    private InetAddress parentTarget;
+    private Capture.Flow capture;
+    private final Set<Chain.Parent> triedParents = new HashSet<>();
+    private final List<SocketChannel> attempts = new ArrayList<>();
+    private InetAddress[] addresses;
+    private int nextAddress = 0;
+    private int destPort;
+    private Timers.Timer attemptTimer;
+    private final long attemptDelay;
+    private final Timers.Timer deadline;
+    private boolean closed = false;
+    private final long acceptedAt;
+    private long connectStartedAt;
+    private final Worker worker;
+    private final Credentials.User user;
     private final DNSResolver resolver;
-    private final int MASK = 0xFF;
-    private final byte CON = 0x01;
-    private final byte IPV4 = 0x01;
-    private final byte IPV6 = 0x04;
-    private final byte DNS = 0x03;
-    private final byte VER = 0x05;
-    private final byte REP = 0x00;
-    private final byte RSV = 0x00;
+    private final byte CON = Socks5Parser.CONNECT;
+    private final byte BIND = Socks5Parser.BIND;
+    private final byte UDP = Socks5Parser.UDP_ASSOCIATE;
+    private static final byte IPV4 = 0x01;
+    private static final byte IPV6 = 0x04;
+    private static final byte VER = 0x05;
+    private static final byte REP = 0x00;
+    private static final byte RSV = 0x00;
     private final byte BINDADDR = 0x00;
     private final byte BINDPORT = 0x00;
-    private final int IPV4SIZE = 4;
-    private final int IPV6SIZE = 16;
+    private static final int IPV4SIZE = 4;
+    public static final byte SUCCEEDED = 0x00;
+    public static final byte GENERAL_FAILURE = 0x01;
+    public static final byte NOT_ALLOWED = 0x02;
+    public static final byte HOST_UNREACHABLE = 0x04;
+    public static final byte CONNECTION_REFUSED = 0x05;
+    public static final byte COMMAND_NOT_SUPPORTED = 0x07;
 
 
 
-    public Connect(SocketChannel client, Selector selector, DNSResolver resolver) {
+    public Connect(SocketChannel client, Worker worker, long acceptedAt, Credentials.User user) {
         this.client = client;
-        this.selector = selector;
-        this.resolver = resolver;
+        this.user = user;
+        this.acceptedAt = acceptedAt;
+        this.worker = worker;
+        this.selector = worker.getSelector();
+        this.resolver = worker.getResolver();
+        this.attemptDelay = worker.getAttemptDelay();
+        this.deadline = worker.getTimers().schedule(worker.getConnectTimeout(), () -> fail(HOST_UNREACHABLE));
     }
 
 
-    public void connect(SelectionKey key) throws IOException {
-        int read = client.read(buffer);
-        if (read == -1) {
-            client.close();
+    public void request(Socks5Parser request, byte[] early) throws IOException {
+        worker.getMetrics().handshake.record(Metrics.micros(acceptedAt));
+        byte command = request.getCommand();
+        InetAddress destAddress = request.getAddress();
+        String domain = request.getDomain();
+        int port = request.getPort();
+        if (command == UDP) {
+            associate(destAddress, port);
             return;
         }
-        if (read == 0) {
+        if (command == BIND) {
+            if (permitted(destAddress, domain, port)) {
+                bind(destAddress);
+            }
             return;
         }
-        if (buffer.position() > MAXSIZE) {
-            client.close();
+        if (command != CON) {
+            if (Log.sampled()) {
+                Log.debug("Invalid command.");
+            }
+            fail(COMMAND_NOT_SUPPORTED);
             return;
         }
-        buffer.flip();
-        if (buffer.remaining() < 10) {
-            buffer.compact();
+        if (!permitted(destAddress, domain, port)) {
             return;
         }
-        buffer.get();
-        byte command = buffer.get();
-        if (command != CON) {
-            System.out.println("Invalid command.");
-            client.close();
-            return;
+        this.early = early;
+        if (worker.getCapture() != null) {
+            capture = worker.getCapture().open(((InetSocketAddress) client.getRemoteAddress()).getAddress(), destAddress,
+                    domain, port, client.getRemoteAddress() + " -> "
+                            + (domain != null ? domain : destAddress.getHostAddress()) + ":" + port);
         }
-        buffer.get();
-        byte address = buffer.get();
-        String destAddress = "";
-        int destPort = 0;
-        switch (address) {
-            case IPV4:
-                byte[] ipv4 = new byte[IPV4SIZE];
-                buffer.get(ipv4);
-                destAddress = InetAddress.getByAddress(ipv4).getHostAddress();
-                System.out.println("IPv4 address: " + destAddress);
-                break;
-            case IPV6:
-                byte[] ipv6 = new byte[IPV6SIZE];
-                buffer.get(ipv6);
-                destAddress = InetAddress.getByAddress(ipv6).getHostAddress();
-                System.out.println("IPv6 address: " + destAddress);
-                break;
-            case DNS:
-                byte len = buffer.get();
-                byte[] bytes = new byte[len];
-                buffer.get(bytes);
-                String domain = new String(bytes, StandardCharsets.US_ASCII).toLowerCase();
-                int domainPort = (buffer.get() & MASK) << 8 | (buffer.get() & MASK);
-                resolver.resolve(domain, domainPort, this, key);
-                buffer.clear();
-                return;
-            default:
-                System.out.println("Unsupported address type.");
-                client.close();
+        if (worker.getChain() != null) {
+            this.request = request;
+            // Иначе родитель сам разрешит имя и правила ACL по подсетям не проверятся: разрешаем здесь и отдаём ему адрес
+            if (domain != null && worker.getAcl() != null) {
+                byName = true;
+                resolver.resolve(domain, port, this);
                 return;
+            }
+            chainToParent();
+            return;
+        }
+        if (Log.sampled()) {
+            Log.debug("Destination: " + (domain != null ? domain : destAddress.getHostAddress()) + ":" + port);
+        }
+        if (domain != null) {
+            byName = true;
+            if (!usePooled(domain, null, port)) {
+                resolver.resolve(domain, port, this);
+            }
+            return;
+        }
+        if (!usePooled(null, destAddress, port)) {
+            continueWithAddresses(new InetAddress[]{destAddress}, port);
+        }
+    }
+
+    private boolean permitted(InetAddress destAddress, String domain, int port) throws IOException {
+        Acl acl = worker.getAcl();
+        if (acl != null) {
+            InetAddress source = ((InetSocketAddress) client.getRemoteAddress()).getAddress();
+            if (domain != null ? !acl.allows(source, domain, port) : !acl.allows(source, destAddress, port)) {
+                deny(domain != null ? domain : destAddress.getHostAddress(), port);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void associate(InetAddress hintAddress, int hintPort) throws IOException {
+        deadline.cancel();
+        UdpAssociation association = new UdpAssociation(client, worker, hintAddress, hintPort);
+        closed = true;
+        try {
+            client.write(ByteBuffer.wrap(reply(REP, association.getBoundAddress())));
+            association.register(selector);
+        } catch (IOException e) {
+            association.close();
+        }
+    }
+
+    private void bind(InetAddress expected) throws IOException {
+        deadline.cancel();
+        Bind bind = new Bind(client, worker, expected, user);
+        closed = true;
+        try {
+            client.write(ByteBuffer.wrap(reply(REP, bind.getBoundAddress())));
+            bind.register(selector);
+        } catch (IOException e) {
+            bind.close();
         }
-        byte firstByte = buffer.get();
-        byte secondByte = buffer.get();
-        destPort = ((firstByte & MASK) << 8) | (secondByte & MASK);
-        System.out.println("Destination: " + destAddress + ":" + destPort);
-        remote = SocketChannel.open();
-        remote.configureBlocking(false);
-        remote.connect(new InetSocketAddress(destAddress, destPort));
-        remote.register(selector, SelectionKey.OP_CONNECT, this);
+    }
 
-        key.interestOps(SelectionKey.OP_READ);
-        buffer.clear();
+    public static byte[] reply(byte rep, InetSocketAddress bound) {
+        byte[] address = bound.getAddress().getAddress();
+        byte[] response = new byte[6 + address.length];
+        response[0] = VER;
+        response[1] = rep;
+        response[2] = RSV;
+        response[3] = address.length == IPV4SIZE ? IPV4 : IPV6;
+        System.arraycopy(address, 0, response, 4, address.length);
+        response[4 + address.length] = (byte) (bound.getPort() >> 8);
+        response[5 + address.length] = (byte) bound.getPort();
+        return response;
+    }
+
+    private void chainToParent() {
+        connectStartedAt = System.nanoTime();
+        Chain.Parent chosen = worker.getChain().choose(triedParents);
+        triedParents.add(chosen);
+        parent = new ParentHandshake(this, worker, chosen);
+        try {
+            parent.start(request, parentTarget);
+        } catch (IOException e) {
+            parent.failed();
+        }
+    }
+
+    public void parentFailed() {
+        parent = null;
+        if (closed) {
+            return;
+        }
+        if (triedParents.size() < worker.getChain().size()) {
+            chainToParent();
+        }
+        else {
+            fail(GENERAL_FAILURE);
+        }
+    }
+
+    public void chained(SocketChannel remote, ByteBuffer leftover) throws IOException {
+        byte[] late = new byte[leftover.remaining()];
+        leftover.get(late);
+        parent.releaseBuffer();
+        established(remote, late);
+    }
+
+    private boolean usePooled(String domain, InetAddress address, int port) throws IOException {
+        UpstreamPool pool = worker.getPool();
+        if (pool.isEmpty()) {
+            return false;
+        }
+        connectStartedAt = System.nanoTime();
+        UpstreamPool.Pooled pooled = domain != null ? pool.take(domain, port) : pool.take(address, port);
+        if (pooled == null) {
+            return false;
+        }
+        Acl acl = worker.getAcl();
+        if (acl != null && domain != null) {
+            InetAddress remote = ((InetSocketAddress) pooled.getChannel().getRemoteAddress()).getAddress();
+            if (acl.filterResolved(((InetSocketAddress) client.getRemoteAddress()).getAddress(),
+                    new InetAddress[]{remote}, port).length == 0) {
+                pooled.getChannel().close();
+                deny(domain, port);
+                return true;
+            }
+        }
+        established(pooled.getChannel(), pooled.getBanner());
+        return true;
     }
 
     public void finishConnect(SelectionKey remoteKey) throws IOException {
-        if (!remote.finishConnect()) {
-            client.close();
+        SocketChannel remote = (SocketChannel) remoteKey.channel();
+        try {
+            if (!remote.finishConnect()) {
+                return;
+            }
+        } catch (IOException e) {
+            attempts.remove(remote);
             remote.close();
+            if (nextAddress < addresses.length) {
+                startNextAttempt();
+            }
+            else if (attempts.isEmpty()) {
+                fail(CONNECTION_REFUSED);
+            }
             return;
         }
+        established(remote, null);
+    }
+
+    private void established(SocketChannel remote, byte[] late) throws IOException {
+        deadline.cancel();
+        if (attemptTimer != null) {
+            attemptTimer.cancel();
+        }
+        for (SocketChannel attempt : attempts) {
+            if (attempt != remote) {
+                attempt.close();
+            }
+        }
+        attempts.clear();
 
         byte[] response = {VER, REP, RSV, IPV4, BINDADDR, BINDADDR, BINDADDR, BINDADDR, BINDPORT, BINDPORT};
         client.write(ByteBuffer.wrap(response));
 
-        Proxy proxy = new Proxy(client, remote);
-        client.register(selector, SelectionKey.OP_READ, proxy);
-        remote.register(selector, SelectionKey.OP_READ, proxy);
+        worker.getMetrics().connect.record(Metrics.micros(connectStartedAt));
+        Proxy proxy = new Proxy(client, remote, worker, user);
+        if (parent != null) {
+            proxy.onClose(parent::release);
+        }
+        if (capture != null) {
+            proxy.capture(capture);
+        }
+        proxy.register(selector, early, late);
 
-        System.out.println("Tunnel is open");
+        if (Log.sampled()) {
+            Log.debug("Tunnel is open");
+        }
     }
 
-    public void continueWithIp(InetAddress ip, int port, SelectionKey clientKey) throws IOException {
-        this.remote = SocketChannel.open();
-        this.remote.configureBlocking(false);
-        this.remote.connect(new InetSocketAddress(ip, port));
-        this.remote.register(selector, SelectionKey.OP_CONNECT, this);
+    private void deny(String destination, int port) {
+        worker.getMetrics().aclDenied.increment();
+        if (Log.sampled()) {
+            Log.debug("Denied by ACL: " + destination + ":" + port);
+        }
+        fail(NOT_ALLOWED);
+    }
+
+    public void fail(byte reply) {
+        if (closed) {
+            return;
+        }
+        worker.getMetrics().connectFailures.increment();
+        byte[] response = {VER, reply, RSV, IPV4, BINDADDR, BINDADDR, BINDADDR, BINDADDR, BINDPORT, BINDPORT};
+        try {
+            client.write(ByteBuffer.wrap(response));
+        } catch (IOException ignored) {}
+        close();
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        worker.getMetrics().activeClients.decrement();
+        deadline.cancel();
+        if (attemptTimer != null) {
+            attemptTimer.cancel();
+        }
+        for (SocketChannel attempt : attempts) {
+            try {
+                attempt.close();
+            } catch (IOException ignored) {}
+        }
+        attempts.clear();
+        if (parent != null) {
+            parent.close();
+        }
+        try {
+            client.close();
+        } catch (IOException ignored) {}
+    }
+
+    public void continueWithAddresses(InetAddress[] resolved, int port) {
+        if (closed) {
+            return;
+        }
+        Acl acl = worker.getAcl();
+        if (acl != null && byName) {
+            try {
+                resolved = acl.filterResolved(((InetSocketAddress) client.getRemoteAddress()).getAddress(), resolved, port);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (resolved.length == 0) {
+                deny("resolved addresses", port);
+                return;
+            }
+        }
+        if (worker.getChain() != null) {
+            parentTarget = interleave(resolved)[0];
+            chainToParent();
+            return;
+        }
+        this.addresses = interleave(resolved);
+        this.destPort = port;
+        this.connectStartedAt = System.nanoTime();
+        startNextAttempt();
+    }
+
+    private void startNextAttempt() {
+        if (attemptTimer != null) {
+            attemptTimer.cancel();
+            attemptTimer = null;
+        }
+        while (nextAddress < addresses.length) {
+            SocketChannel remote = null;
+            try {
+                remote = SocketChannel.open();
+                remote.configureBlocking(false);
+                attempts.add(remote);
+                if (remote.connect(new InetSocketAddress(addresses[nextAddress++], destPort))) {
+                    established(remote, null);
+                    return;
+                }
+                remote.register(selector, SelectionKey.OP_CONNECT, this);
+                break;
+            } catch (IOException e) {
+                if (remote != null) {
+                    attempts.remove(remote);
+                    try {
+                        remote.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+        if (attempts.isEmpty()) {
+            fail(HOST_UNREACHABLE);
+            return;
+        }
+        if (nextAddress < addresses.length) {
+            attemptTimer = worker.getTimers().schedule(attemptDelay, this::startNextAttempt);
+        }
+    }
+
+    private static InetAddress[] interleave(InetAddress[] resolved) {
+        List<InetAddress> ipv6 = new ArrayList<>();
+        List<InetAddress> ipv4 = new ArrayList<>();
+        for (InetAddress address : resolved) {
+            if (address instanceof Inet6Address) {
+                ipv6.add(address);
+            }
+            else {
+                ipv4.add(address);
+            }
+        }
+        InetAddress[] ordered = new InetAddress[resolved.length];
+        int i = 0;
+        for (int k = 0; i < ordered.length; k++) {
+            if (k < ipv6.size()) {
+                ordered[i++] = ipv6.get(k);
+            }
+            if (k < ipv4.size()) {
+                ordered[i++] = ipv4.get(k);
+            }
+        }
+        return ordered;
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,135 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Credentials {
+    private static final String HASHED = "sha256:";
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Path path;
+    private final long reloadInterval;
+    private volatile Map<String, User> users = Map.of();
+    private volatile long nextCheck;
+    private long lastModified;
+
+    public Credentials(Path path, long reloadInterval) throws IOException {
+        this.path = path;
+        this.reloadInterval = reloadInterval;
+        this.lastModified = Files.getLastModifiedTime(path).toMillis();
+        load();
+        this.nextCheck = System.currentTimeMillis() + reloadInterval;
+    }
+
+    public User authenticate(String name, byte[] password) {
+        reloadIfChanged();
+        byte[] hash = SHA256.get().digest(password);
+        User user = users.get(name);
+        if (user == null || !MessageDigest.isEqual(user.hash, hash)) {
+            return null;
+        }
+        return user;
+    }
+
+    private void reloadIfChanged() {
+        long now = System.currentTimeMillis();
+        if (now < nextCheck) {
+            return;
+        }
+        synchronized (this) {
+            if (now < nextCheck) {
+                return;
+            }
+            nextCheck = now + reloadInterval;
+            try {
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                if (modified != lastModified) {
+                    lastModified = modified;
+                    load();
+                    Log.info("Reloaded " + users.size() + " users from " + path);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                Log.warn("Credentials reload failed, keeping previous users: " + e);
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        Map<String, User> previous = users;
+        Map<String, User> loaded = new HashMap<>();
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Bad credentials line: " + line);
+            }
+            String name = line.substring(0, colon);
+            String secret = line.substring(colon + 1);
+            byte[] hash = secret.startsWith(HASHED)
+                    ? HexFormat.of().parseHex(secret.substring(HASHED.length()))
+                    : SHA256.get().digest(secret.getBytes(StandardCharsets.UTF_8));
+            User user = previous.get(name);
+            if (user == null) {
+                user = new User(name);
+            }
+            user.hash = hash;
+            loaded.put(name, user);
+        }
+        users = Map.copyOf(loaded);
+    }
+
+    public void write(StringBuilder out) {
+        for (User user : users.values()) {
+            user.write(out);
+        }
+    }
+
+    public static class User {
+        private final String name;
+        private final String label;
+        private volatile byte[] hash;
+        public final LongAdder connections = new LongAdder();
+        public final LongAdder active = new LongAdder();
+        public final LongAdder bytesUpstream = new LongAdder();
+        public final LongAdder bytesDownstream = new LongAdder();
+
+        private User(String name) {
+            this.name = name;
+            this.label = name.replace("\\", "\\\\").replace("\"", "\\\"");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        private void write(StringBuilder out) {
+            counter(out, "socks_user_connections_total", connections);
+            counter(out, "socks_user_connections_active", active);
+            counter(out, "socks_user_bytes_upstream_total", bytesUpstream);
+            counter(out, "socks_user_bytes_downstream_total", bytesDownstream);
+        }
+
+        private void counter(StringBuilder out, String metric, LongAdder value) {
+            out.append(metric).append("{user=\"").append(label).append("\"} ").append(value.sum()).append('\n');
+        }
+    }
+}
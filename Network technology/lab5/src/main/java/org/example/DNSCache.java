@@ -0,0 +1,79 @@
+package org.example;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DNSCache {
+    private final int maxSize;
+    private final long negativeTtl;
+    private final Map<String, Entry> entries;
+    // Имена, которые сейчас запрашивает один из рабочих потоков, и резолверы остальных потоков, ждущие его ответа
+    private final Map<String, List<DNSResolver>> pending = new HashMap<>();
+
+    public DNSCache(int maxSize, long negativeTtl) {
+        this.maxSize = maxSize;
+        this.negativeTtl = negativeTtl;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > DNSCache.this.maxSize;
+            }
+        };
+    }
+
+    public synchronized Entry get(String domain) {
+        Entry entry = entries.get(domain);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt - System.nanoTime() <= 0) {
+            entries.remove(domain);
+            return null;
+        }
+        return entry;
+    }
+
+    public synchronized void put(String domain, InetAddress[] addresses, long ttl) {
+        if (ttl <= 0 || maxSize <= 0) {
+            return;
+        }
+        entries.put(domain, new Entry(addresses, System.nanoTime() + ttl * 1_000_000_000L));
+    }
+
+    // false — запрос ещё никто не ведёт и вызывающий становится его владельцем
+    public synchronized boolean follow(String domain, DNSResolver resolver) {
+        List<DNSResolver> followers = pending.get(domain);
+        if (followers == null) {
+            pending.put(domain, new ArrayList<>(0));
+            return false;
+        }
+        followers.add(resolver);
+        return true;
+    }
+
+    public synchronized List<DNSResolver> release(String domain) {
+        return pending.remove(domain);
+    }
+
+    public void putNegative(String domain) {
+        put(domain, new InetAddress[0], negativeTtl);
+    }
+
+    public static class Entry {
+        private final InetAddress[] addresses;
+        private final long expiresAt;
+
+        private Entry(InetAddress[] addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+
+        public InetAddress[] getAddresses() {
+            return addresses;
+        }
+    }
+}
@@ -2,34 +2,112 @@ package org.example;
 import org.xbill.DNS.*;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.ARecord;
+import org.xbill.DNS.AAAARecord;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 
 public class DNSResolver {
     private DatagramChannel channel;
-    private static final InetSocketAddress DNSServer = new InetSocketAddress("1.1.1.1", 53);
-    private final Map<Integer, Object[]> DNSServerAnswer = new HashMap<>();
+    private final Upstream[] upstreams;
+    private final Map<Integer, Request> DNSServerAnswer = new HashMap<>();
+    private final Map<String, Query> inFlight = new HashMap<>();
+    private final Queue<String> shared = new ConcurrentLinkedQueue<>();
+    private final Selector selector;
+    private final DNSCache cache;
+    private final Metrics metrics;
+    private final Timers timers;
+    private final long timeout;
+    private final int retries;
+    private final long resolutionDelay;
     public int BUFSIZE = 512;
+    private final ByteBuffer buffer;
 
-    public DNSResolver(Selector selector) throws IOException {
+    public DNSResolver(Selector selector, DNSCache cache, Timers timers, BufferPool buffers, Metrics metrics, Config config) throws IOException {
+        this.selector = selector;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.buffer = buffers.acquire(BUFSIZE, this);
+        this.timers = timers;
+        this.timeout = config.getLong("dns.timeout", 1000);
+        this.retries = config.getInt("dns.retries", 2);
+        this.resolutionDelay = config.getLong("dns.resolutionDelay", 50);
+        String[] servers = config.getString("dns.servers", "1.1.1.1").split(",");
+        upstreams = new Upstream[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            upstreams[i] = new Upstream(parseServer(servers[i].trim()));
+        }
         channel = DatagramChannel.open();
         channel.configureBlocking(false);
-        channel.connect(DNSServer);
         channel.register(selector, SelectionKey.OP_READ, this);
     }
 
+    private static InetSocketAddress parseServer(String server) {
+        int colon = server.lastIndexOf(':');
+        if (colon > 0 && server.indexOf(':') == colon) {
+            return new InetSocketAddress(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1)));
+        }
+        if (server.startsWith("[")) {
+            int end = server.indexOf(']');
+            return new InetSocketAddress(server.substring(1, end), Integer.parseInt(server.substring(end + 2)));
+        }
+        return new InetSocketAddress(server, 53);
+    }
+
+
 
 
+    public void resolve (String domain, int port, Connect connect) {
+        DNSCache.Entry cached = cache.get(domain);
+        if (cached != null) {
+            metrics.dnsCacheHits.increment();
+            complete(new Waiter(connect, port), cached.getAddresses());
+            return;
+        }
+        Query pending = inFlight.get(domain);
+        if (pending != null) {
+            pending.waiters.add(new Waiter(connect, port));
+            return;
+        }
+        query(domain, new Waiter(connect, port));
+    }
+
+    public DNSCache.Entry lookup(String domain) {
+        DNSCache.Entry cached = cache.get(domain);
+        if (cached != null) {
+            metrics.dnsCacheHits.increment();
+        }
+        else if (!inFlight.containsKey(domain)) {
+            query(domain, null);
+        }
+        return cached;
+    }
 
-    public void resolve (String domain, int port, Connect connect, SelectionKey clientKey) {
+    private void query(String domain, Waiter waiter) {
+        Query state = new Query(domain);
+        if (waiter != null) {
+            state.waiters.add(waiter);
+        }
+        inFlight.put(domain, state);
+        if (cache.follow(domain, this)) {
+            // Это имя уже запрашивает другой рабочий поток: ждём, пока он положит ответ в общий кэш
+            state.follower = true;
+            return;
+        }
+        metrics.dnsQueries.increment();
         try {
             Name name;
             if (domain.endsWith(".")) {
@@ -38,44 +116,265 @@ public class DNSResolver {
             else {
                 name = Name.fromString(domain + ".");
             }
-            Record record = Record.newRecord(name, Type.A, DClass.IN);
-            Message query = Message.newQuery(record);
-            int id = query.getHeader().getID();
-            DNSServerAnswer.put(id, new Object[]{connect, clientKey, port});
-            channel.write(ByteBuffer.wrap(query.toWire()));
+            state.requests[0] = new Request(state, Type.A);
+            state.requests[1] = new Request(state, Type.AAAA);
+            for (Request request : state.requests) {
+                Message query = Message.newQuery(Record.newRecord(name, request.type, DClass.IN));
+                // new Header() берёт случайный id из того же генератора, что и newQuery
+                while (DNSServerAnswer.containsKey(query.getHeader().getID())) {
+                    query.getHeader().setID(new Header().getID());
+                }
+                request.id = query.getHeader().getID();
+                request.wire = query.toWire();
+                request.upstream = fastestUpstream();
+                DNSServerAnswer.put(request.id, request);
+                send(request);
+            }
         } catch (Exception e) {
-            System.err.println(e);
+            Log.warn("DNS: " + e);
+            finish(state);
+        }
+    }
+
+    private int fastestUpstream() {
+        int best = 0;
+        for (int i = 1; i < upstreams.length; i++) {
+            if (upstreams[i].rtt < upstreams[best].rtt) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void send(Request request) throws IOException {
+        request.sentAt = System.nanoTime();
+        channel.send(ByteBuffer.wrap(request.wire), upstreams[request.upstream].address);
+        long delay = timeout << request.attempt;
+        request.timer = timers.schedule(delay, () -> retry(request));
+    }
+
+    private void retry(Request request) {
+        Upstream upstream = upstreams[request.upstream];
+        upstream.rtt = Math.min(Math.max(upstream.rtt * 2, timeout * 1_000_000L), timeout * 1_000_000L << retries);
+        if (request.attempt < retries) {
+            request.attempt++;
+            request.upstream = (request.upstream + 1) % upstreams.length;
+            try {
+                send(request);
+                return;
+            } catch (IOException e) {
+                Log.warn("DNS: " + e);
+            }
+        }
+        request.done = true;
+        DNSServerAnswer.remove(request.id);
+        Query query = request.query;
+        if (query.requests[0].done && query.requests[1].done) {
+            finish(query);
         }
     }
 
     public void read() {
-        ByteBuffer buffer = ByteBuffer.allocate(BUFSIZE);
+        SocketAddress source;
+        while ((source = receive()) != null) {
+            handle(source);
+        }
+    }
+
+    private SocketAddress receive() {
+        buffer.clear();
+        try {
+            return channel.receive(buffer);
+        } catch (IOException e) {
+            Log.warn("DNS: " + e);
+            return null;
+        }
+    }
+
+    private void handle(SocketAddress source) {
         try {
-            channel.read(buffer);
             buffer.flip();
             Message response = new Message(buffer);
             int id = response.getHeader().getID();
-            Object[] data = DNSServerAnswer.remove(id);
-            Connect connect = (Connect)data[0];
-            SelectionKey key = (SelectionKey)data[1];
-            int port = (int)data[2];
-            Record[] answers = response.getSectionArray(Section.ANSWER);
-            if (answers.length == 0) {
+            Request request = DNSServerAnswer.get(id);
+            if (request == null || !isUpstream(source)) {
+                return;
+            }
+            request.timer.cancel();
+            int rcode = response.getRcode();
+            // SERVFAIL, REFUSED и прочие ошибки сервера не окончательны: спрашиваем следующий сервер, как при таймауте
+            if (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) {
+                retry(request);
                 return;
             }
-            InetAddress resolvedIp = null;
+            DNSServerAnswer.remove(id);
+            request.done = true;
+            request.answered = true;
+            Upstream upstream = upstreams[request.upstream];
+            if (source.equals(upstream.address)) {
+                upstream.rtt = (upstream.rtt * 7 + (System.nanoTime() - request.sentAt)) / 8;
+            }
+            Query query = request.query;
+            int known = query.addresses.size();
+            Record[] answers = response.getSectionArray(Section.ANSWER);
             for (Record rec : answers) {
-                if (rec.getType() == Type.A) {
-                    resolvedIp = ((ARecord) rec).getAddress();
-                    break;
+                if (rec.getType() == Type.A && request.type == Type.A) {
+                    query.addresses.add(((ARecord) rec).getAddress());
+                }
+                else if (rec.getType() == Type.AAAA && request.type == Type.AAAA) {
+                    query.addresses.add(((AAAARecord) rec).getAddress());
                 }
+                else {
+                    continue;
+                }
+                query.ttl = Math.min(query.ttl, rec.getTTL());
             }
-            if (resolvedIp == null) {
+            if (query.finished) {
+                // Ответ AAAA опоздал к resolutionDelay: ожидающие уже получили A, но кэш дополняется
+                if (query.addresses.size() > known) {
+                    cache.put(query.domain, query.addresses.toArray(new InetAddress[0]), query.ttl);
+                }
                 return;
             }
-            connect.continueWithIp(resolvedIp, port, key);
+            if (query.requests[0].done && query.requests[1].done) {
+                finish(query);
+            }
+            else if (request.type == Type.A && !query.addresses.isEmpty() && query.resolutionTimer == null) {
+                query.resolutionTimer = timers.schedule(resolutionDelay, () -> finish(query));
+            }
         } catch (Exception e) {
-            System.err.println(e);
+            Log.warn("DNS: " + e);
+        }
+    }
+
+    private void finish(Query query) {
+        if (inFlight.get(query.domain) != query) {
+            return;
+        }
+        inFlight.remove(query.domain);
+        query.finished = true;
+        metrics.dns.record(Metrics.micros(query.startedAt));
+        boolean answered = false;
+        for (Request request : query.requests) {
+            if (request == null) {
+                continue;
+            }
+            answered |= request.answered;
+            // Если адреса уже есть, оставшийся запрос не отменяется: его ответ допишется в кэш
+            if (!request.done && query.addresses.isEmpty()) {
+                request.done = true;
+                if (request.timer != null) {
+                    request.timer.cancel();
+                }
+                DNSServerAnswer.remove(request.id);
+            }
+        }
+        if (query.resolutionTimer != null) {
+            query.resolutionTimer.cancel();
+        }
+        InetAddress[] addresses = query.addresses.toArray(new InetAddress[0]);
+        if (!query.follower) {
+            if (addresses.length > 0) {
+                cache.put(query.domain, addresses, query.ttl);
+            }
+            else if (answered) {
+                cache.putNegative(query.domain);
+            }
+            List<DNSResolver> followers = cache.release(query.domain);
+            if (followers != null) {
+                for (DNSResolver follower : followers) {
+                    follower.shared.add(query.domain);
+                    follower.selector.wakeup();
+                }
+            }
+        }
+        if (addresses.length == 0) {
+            metrics.dnsFailures.increment();
+        }
+        for (Waiter waiter : query.waiters) {
+            complete(waiter, addresses);
         }
     }
+
+    // Вызывается рабочим потоком на каждом проходе цикла: завершает запросы, ответ на которые получил другой поток
+    public void runShared() {
+        String domain;
+        while ((domain = shared.poll()) != null) {
+            Query query = inFlight.get(domain);
+            if (query == null || !query.follower) {
+                continue;
+            }
+            DNSCache.Entry cached = cache.get(domain);
+            if (cached != null) {
+                query.addresses.addAll(Arrays.asList(cached.getAddresses()));
+            }
+            try {
+                finish(query);
+            } catch (RuntimeException e) {
+                Log.error("DNS waiter failed: " + e);
+            }
+        }
+    }
+
+    private boolean isUpstream(SocketAddress source) {
+        for (Upstream upstream : upstreams) {
+            if (upstream.address.equals(source)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void complete(Waiter waiter, InetAddress[] addresses) {
+        if (addresses.length == 0) {
+            waiter.connect.fail(Connect.HOST_UNREACHABLE);
+            return;
+        }
+        waiter.connect.continueWithAddresses(addresses, waiter.port);
+    }
+
+    private static class Upstream {
+        private final InetSocketAddress address;
+        private long rtt = 0;
+
+        private Upstream(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+
+    private static class Query {
+        private final String domain;
+        private final List<Waiter> waiters = new ArrayList<>(1);
+        private final Request[] requests = new Request[2];
+        private final List<InetAddress> addresses = new ArrayList<>();
+        private long ttl = Long.MAX_VALUE;
+        private final long startedAt = System.nanoTime();
+        private Timers.Timer resolutionTimer;
+        private boolean finished = false;
+        private boolean follower = false;
+
+        private Query(String domain) {
+            this.domain = domain;
+        }
+    }
+
+    private static class Request {
+        private final Query query;
+        private final int type;
+        private int id;
+        private byte[] wire;
+        private int upstream;
+        private int attempt = 0;
+        private long sentAt;
+        private Timers.Timer timer;
+        private boolean done = false;
+        private boolean answered = false;
+
+        private Request(Query query, int type) {
+            this.query = query;
+            this.type = type;
+        }
+    }
+
+    private record Waiter(Connect connect, int port) {}
 }
@@ -6,36 +6,104 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
 public class Handshake {
-    private ByteBuffer buffer = ByteBuffer.allocate(256);
+    private ByteBuffer buffer;
+    private final Socks5Parser parser = new Socks5Parser();
+    private final Timers.Timer deadline;
+    private final long acceptedAt = System.nanoTime();
+    private boolean closed = false;
     private final SocketChannel client;
-    private final DNSResolver resolver;
+    private final Worker worker;
+    private final Credentials credentials;
+    private Credentials.User user;
     private final byte VERSION = 0x05;
     private final byte SUCCESS = 0x00;
+    private final byte NO_ACCEPTABLE = (byte) 0xFF;
+    private final byte AUTH_VERSION = 0x01;
+    private final byte AUTH_FAILURE = 0x01;
 
-    public Handshake(SocketChannel client, DNSResolver resolver) {
+    public Handshake(SocketChannel client, Worker worker) {
         this.client = client;
-        this.resolver = resolver;
+        this.worker = worker;
+        this.credentials = worker.getCredentials();
+        this.buffer = worker.getBuffers().acquire(Socks5Parser.MAXSIZE, this);
+        this.deadline = worker.getTimers().schedule(worker.getHandshakeTimeout(), this::close);
     }
 
     public void doHandshake(SelectionKey key) throws IOException {
-        client.read(buffer);
-        buffer.flip();
-        if (buffer.remaining() < 3) {
-            buffer.compact();
+        if (client.read(buffer) == -1) {
+            close();
             return;
         }
-        buffer.get();
-        int nmethods = buffer.get();
-        if (buffer.remaining() < nmethods) {
-            buffer.compact();
-            return;
+        buffer.flip();
+        while (true) {
+            switch (parser.parse(buffer)) {
+                case NEED_MORE -> {
+                    buffer.compact();
+                    if (!buffer.hasRemaining()) {
+                        close();
+                    }
+                    return;
+                }
+                case GREETING -> {
+                    if (credentials == null) {
+                        client.write(ByteBuffer.wrap(new byte[]{VERSION, Socks5Parser.NO_AUTH}));
+                    }
+                    else if (parser.offers(Socks5Parser.PASSWORD)) {
+                        client.write(ByteBuffer.wrap(new byte[]{VERSION, Socks5Parser.PASSWORD}));
+                        parser.expectAuth();
+                    }
+                    else {
+                        client.write(ByteBuffer.wrap(new byte[]{VERSION, NO_ACCEPTABLE}));
+                        close();
+                        return;
+                    }
+                }
+                case AUTH -> {
+                    user = credentials.authenticate(parser.getUsername(), parser.getPassword());
+                    if (user == null) {
+                        worker.getMetrics().authFailures.increment();
+                        if (Log.sampled()) {
+                            Log.debug("Authentication failed for " + parser.getUsername());
+                        }
+                        client.write(ByteBuffer.wrap(new byte[]{AUTH_VERSION, AUTH_FAILURE}));
+                        close();
+                        return;
+                    }
+                    client.write(ByteBuffer.wrap(new byte[]{AUTH_VERSION, SUCCESS}));
+                }
+                case REQUEST -> {
+                    byte[] early = new byte[buffer.remaining()];
+                    buffer.get(early);
+                    closed = true;
+                    deadline.cancel();
+                    releaseBuffer();
+                    Connect connect = new Connect(client, worker, acceptedAt, user);
+                    key.interestOps(0);
+                    key.attach(connect);
+                    connect.request(parser, early);
+                    return;
+                }
+            }
         }
-        buffer.position(buffer.position() +nmethods);
+    }
 
-        byte[] response = {VERSION, SUCCESS};
-        client.write(ByteBuffer.wrap(response));
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        worker.getMetrics().activeClients.decrement();
+        deadline.cancel();
+        try {
+            client.close();
+        } catch (IOException ignored) {}
+        releaseBuffer();
+    }
 
-        key.attach(new Connect(client, key.selector(), resolver));
-        buffer.clear();
+    private void releaseBuffer() {
+        if (buffer != null) {
+            worker.getBuffers().release(buffer);
+            buffer = null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Listener {
+    private final InetSocketAddress address;
+    private final int backlog;
+    private final boolean reusePort;
+    private final boolean tcpNoDelay;
+    private final boolean keepAlive;
+    private final int receiveBuffer;
+    private final int sendBuffer;
+    private ServerSocketChannel channel;
+
+    private Listener(Config config, String prefix, int port) {
+        this.address = new InetSocketAddress(option(config, prefix, "address", "localhost"),
+                Integer.parseInt(option(config, prefix, "port", Integer.toString(port))));
+        this.backlog = Integer.parseInt(option(config, prefix, "backlog", "1024"));
+        this.reusePort = Boolean.parseBoolean(option(config, prefix, "reusePort", "false"));
+        this.tcpNoDelay = Boolean.parseBoolean(option(config, prefix, "tcpNoDelay", "false"));
+        this.keepAlive = Boolean.parseBoolean(option(config, prefix, "keepAlive", "false"));
+        this.receiveBuffer = Integer.parseInt(option(config, prefix, "receiveBuffer", "0"));
+        this.sendBuffer = Integer.parseInt(option(config, prefix, "sendBuffer", "0"));
+    }
+
+    public static List<Listener> create(Config config, int port) {
+        List<Listener> listeners = new ArrayList<>();
+        for (String name : config.getString("listeners", "").split(",")) {
+            name = name.trim();
+            if (!name.isEmpty()) {
+                listeners.add(new Listener(config, "listener." + name + ".", port));
+            }
+        }
+        if (listeners.isEmpty()) {
+            listeners.add(new Listener(config, "listen.", port));
+        }
+        return listeners;
+    }
+
+    private static String option(Config config, String prefix, String key, String defaultValue) {
+        return config.getString(prefix + key, config.getString("listen." + key, defaultValue));
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public void open(Selector selector) throws IOException {
+        open();
+        try {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_ACCEPT, this);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Блокирующий режим: accept() ждёт клиента, так работает движок threads
+    public void open() throws IOException {
+        channel = ServerSocketChannel.open();
+        try {
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            if (receiveBuffer > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+            }
+            channel.bind(address, backlog);
+        } catch (IOException e) {
+            channel.close();
+            throw new IOException("Cannot listen on " + address + ": " + e.getMessage(), e);
+        }
+    }
+
+    public SocketChannel accept() throws IOException {
+        SocketChannel client = channel.accept();
+        if (client == null) {
+            return null;
+        }
+        try {
+            if (tcpNoDelay) {
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            if (keepAlive) {
+                client.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            }
+            if (sendBuffer > 0) {
+                client.setOption(StandardSocketOptions.SO_SNDBUF, sendBuffer);
+            }
+        } catch (IOException e) {
+            client.close();
+            throw e;
+        }
+        return client;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,52 @@
+package org.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public final class Log {
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    private static volatile Level level = Level.INFO;
+    private static volatile int sample = 1;
+
+    private Log() {
+    }
+
+    public static void configure(Config config) {
+        level = Level.valueOf(config.getString("log.level", "INFO").toUpperCase());
+        sample = Math.max(1, config.getInt("log.sample", 1));
+    }
+
+    public static boolean enabled(Level target) {
+        return target.ordinal() <= level.ordinal();
+    }
+
+    public static boolean sampled() {
+        if (level != Level.DEBUG) {
+            return false;
+        }
+        int rate = sample;
+        return rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+    }
+
+    public static void error(String message) {
+        System.err.println("[ERROR] " + message);
+    }
+
+    public static void warn(String message) {
+        if (enabled(Level.WARN)) {
+            System.err.println("[WARN] " + message);
+        }
+    }
+
+    public static void info(String message) {
+        if (enabled(Level.INFO)) {
+            System.out.println("[INFO] " + message);
+        }
+    }
+
+    public static void debug(String message) {
+        if (enabled(Level.DEBUG)) {
+            System.out.println("[DEBUG] " + message);
+        }
+    }
+}
@@ -5,7 +5,40 @@ import java.io.IOException;
 import static java.lang.Integer.parseInt;
 
 public class Main {
+    // Ключи, которые читает только движок nio: с engine=threads они молча игнорировались бы
+    private static final String[] NIO_ONLY = {
+            "workers", "timers.tick", "buffers.leakDetection", "relay", "relay.segments",
+            "shape.client", "shape.user", "shape.destination", "shape.burst", "schedule.quantum", "schedule.rounds",
+            "dns.servers", "dns.timeout", "dns.retries", "dns.resolutionDelay", "dns.cache.size", "dns.cache.negativeTtl",
+            "connect.attemptDelay", "timeout.bind",
+            "udp.timeout", "udp.peerTimeout", "udp.maxPeers", "udp.batch", "udp.receiveBuffer",
+            "chain.parents", "chain.healthInterval", "chain.healthTimeout", "chain.maxFailures",
+            "capture.rules", "capture.dir", "capture.bytes", "capture.queue", "capture.fileSize", "capture.reloadInterval",
+            "pool.destinations", "pool.perDestination", "pool.idleTimeout", "pool.retryDelay"
+    };
+
     public static void main(String[] args) throws IOException {
-        new MySelector(parseInt(args[0])).start();
+        Config config = args.length > 1 ? new Config(args[1]) : new Config();
+        start(parseInt(args[0]), config);
+    }
+
+    public static void start(int port, Config config) throws IOException {
+        String engine = config.getString("engine", "nio");
+        switch (engine) {
+            case "nio" -> new MySelector(port, config).start();
+            case "threads" -> {
+                unsupported(config, engine, NIO_ONLY);
+                new VirtualThreadServer(port, config).start();
+            }
+            default -> throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    private static void unsupported(Config config, String engine, String... keys) {
+        for (String key : keys) {
+            if (!config.getString(key, "").isEmpty()) {
+                throw new IllegalArgumentException(key + " is not supported by engine=" + engine);
+            }
+        }
     }
 }
\ No newline at end of file
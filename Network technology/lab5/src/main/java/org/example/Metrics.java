@@ -0,0 +1,66 @@
+package org.example;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class Metrics {
+    public final LongAdder accepted = new LongAdder();
+    public final LongAdder activeClients = new LongAdder();
+    public final LongAdder tunnelsOpened = new LongAdder();
+    public final LongAdder activeTunnels = new LongAdder();
+    public final LongAdder connectFailures = new LongAdder();
+    public final LongAdder authFailures = new LongAdder();
+    public final LongAdder shaperWaits = new LongAdder();
+    public final LongAdder aclDenied = new LongAdder();
+    public final LongAdder captureDropped = new LongAdder();
+    public final LongAdder bytesUpstream = new LongAdder();
+    public final LongAdder bytesDownstream = new LongAdder();
+    public final LongAdder dnsQueries = new LongAdder();
+    public final LongAdder dnsCacheHits = new LongAdder();
+    public final LongAdder dnsFailures = new LongAdder();
+    public final LongAdder udpDatagrams = new LongAdder();
+    public final LongAdder udpDropped = new LongAdder();
+    public final Histogram handshake = new Histogram();
+    public final Histogram dns = new Histogram();
+    public final Histogram connect = new Histogram();
+    public final Histogram firstByte = new Histogram();
+
+    public static long micros(long sinceNanos) {
+        return (System.nanoTime() - sinceNanos) / 1000;
+    }
+
+    public void write(StringBuilder out) {
+        counter(out, "socks_connections_accepted_total", accepted);
+        counter(out, "socks_connections_active", activeClients);
+        counter(out, "socks_tunnels_opened_total", tunnelsOpened);
+        counter(out, "socks_tunnels_active", activeTunnels);
+        counter(out, "socks_connect_failures_total", connectFailures);
+        counter(out, "socks_auth_failures_total", authFailures);
+        counter(out, "socks_shaper_waits_total", shaperWaits);
+        counter(out, "socks_acl_denied_total", aclDenied);
+        counter(out, "socks_capture_dropped_total", captureDropped);
+        counter(out, "socks_bytes_upstream_total", bytesUpstream);
+        counter(out, "socks_bytes_downstream_total", bytesDownstream);
+        counter(out, "socks_dns_queries_total", dnsQueries);
+        counter(out, "socks_dns_cache_hits_total", dnsCacheHits);
+        counter(out, "socks_dns_failures_total", dnsFailures);
+        counter(out, "socks_udp_datagrams_total", udpDatagrams);
+        counter(out, "socks_udp_dropped_total", udpDropped);
+        histogram(out, "socks_handshake_us", handshake);
+        histogram(out, "socks_dns_us", dns);
+        histogram(out, "socks_connect_us", connect);
+        histogram(out, "socks_first_byte_us", firstByte);
+    }
+
+    private static void counter(StringBuilder out, String name, LongAdder value) {
+        out.append(name).append(' ').append(value.sum()).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, Histogram histogram) {
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.percentile(quantile)).append('\n');
+        }
+        out.append(name).append("_count ").append(histogram.count()).append('\n');
+        out.append(name).append("_mean ").append(histogram.mean()).append('\n');
+    }
+}
@@ -0,0 +1,59 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+public class MetricsServer {
+    private final HttpServer server;
+    private final Metrics metrics;
+    private final Credentials credentials;
+    private final Chain chain;
+    private final Worker[] workers;
+
+    public MetricsServer(InetSocketAddress address, Metrics metrics, Credentials credentials, Chain chain,
+                         Worker[] workers) throws IOException {
+        this.metrics = metrics;
+        this.credentials = credentials;
+        this.chain = chain;
+        this.workers = workers;
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> {
+            StringBuilder out = new StringBuilder();
+            this.metrics.write(out);
+            if (this.credentials != null) {
+                this.credentials.write(out);
+            }
+            if (this.chain != null) {
+                this.chain.write(out);
+            }
+            respond(exchange, out);
+        });
+        server.createContext("/tunnels", exchange -> {
+            StringBuilder out = new StringBuilder();
+            for (Worker worker : this.workers) {
+                for (Proxy proxy : worker.getTunnels()) {
+                    proxy.describe(out);
+                }
+            }
+            respond(exchange, out);
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    private static void respond(HttpExchange exchange, StringBuilder out) throws IOException {
+        byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+    }
+}
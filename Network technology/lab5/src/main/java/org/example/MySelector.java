@@ -2,30 +2,71 @@
 
     import java.io.IOException;
     import java.net.InetSocketAddress;
-    import java.nio.ByteBuffer;
     import java.nio.channels.SelectionKey;
     import java.nio.channels.Selector;
-    import java.nio.channels.ServerSocketChannel;
     import java.nio.channels.SocketChannel;
+    import java.nio.file.Path;
+    import java.util.List;
+    import java.util.concurrent.CountDownLatch;
+    import java.util.concurrent.TimeUnit;
 
 
     public class MySelector {
         private Integer port;
-        public static final ThreadLocal<ByteBuffer> TRANSFER_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(32768));
-        private DNSResolver resolver;
+        private final Worker[] workers;
+        private final Metrics metrics = new Metrics();
+        private final Config config;
+        private final Credentials credentials;
+        private final Chain chain;
+        private final long drainTimeout;
+        private final CountDownLatch stopped = new CountDownLatch(1);
+        private volatile boolean draining = false;
+        private Selector selector;
+        private int next = 0;
 
-        public MySelector(Integer port) {
+        public MySelector(Integer port, Config config) throws IOException {
             this.port = port;
+            this.config = config;
+            Log.configure(config);
+            int count = config.getInt("workers", Runtime.getRuntime().availableProcessors());
+            if (count < 1) {
+                throw new IllegalArgumentException("workers must be positive: " + count);
+            }
+            DNSCache cache = new DNSCache(config.getInt("dns.cache.size", 10000), config.getLong("dns.cache.negativeTtl", 30));
+            String users = config.getString("auth.users", "");
+            credentials = users.isEmpty() ? null : new Credentials(Path.of(users), config.getLong("auth.reloadInterval", 5000));
+            Shaper shaper = Shaper.create(config);
+            Acl acl = Acl.create(config);
+            chain = Chain.create(config);
+            Capture capture = Capture.create(config, metrics);
+            drainTimeout = config.getLong("drain.timeout", 30000);
+            workers = new Worker[count];
+            for (int i = 0; i < count; i++) {
+                workers[i] = new Worker(config, cache, credentials, shaper, acl, chain, capture, metrics);
+            }
         }
 
         public void start() throws IOException {
-            ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
-            serverSocketChannel.bind(new InetSocketAddress("localhost", port));
-            serverSocketChannel.configureBlocking(false);
-            Selector selector = Selector.open();
-            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-            resolver = new DNSResolver(selector);
-            while (true) {
+            int metricsPort = config.getInt("metrics.port", 0);
+            if (metricsPort > 0) {
+                String metricsAddress = config.getString("metrics.address", "127.0.0.1");
+                new MetricsServer(new InetSocketAddress(metricsAddress, metricsPort), metrics, credentials, chain, workers).start();
+                Log.info("Metrics on http://" + metricsAddress + ":" + metricsPort + "/metrics");
+            }
+            for (int i = 0; i < workers.length; i++) {
+                Thread thread = new Thread(workers[i], "socks-worker-" + i);
+                thread.start();
+            }
+            selector = Selector.open();
+            List<Listener> listeners = Listener.create(config, port);
+            for (Listener listener : listeners) {
+                listener.open(selector);
+                Log.info("Listening on " + listener.getAddress());
+            }
+            if (drainTimeout > 0) {
+                Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "socks-drain"));
+            }
+            while (!draining) {
                 selector.select();
                 for (SelectionKey key : selector.selectedKeys()) {
                     try {
@@ -34,42 +75,59 @@
                         }
 
                         if (key.isAcceptable()) {
-                            ServerSocketChannel server = (ServerSocketChannel) key.channel();
-                            SocketChannel client = server.accept();
-                            if (client == null) {
-                                continue;
-                            }
-                            client.configureBlocking(false);
-                            client.register(selector, SelectionKey.OP_READ, new Handshake(client, resolver));
-                            System.out.println("Client: " + client.getRemoteAddress());
-                        }
-                        if (key.isConnectable()) {
-                            ((Connect) key.attachment()).finishConnect(key);
-                        }
-                        if (key.isReadable()) {
-                            Object att = key.attachment();
-                            if (att instanceof DNSResolver dns) {
-                                dns.read();
-                                continue;
-                            }
-                            if (att instanceof Handshake handshake) {
-                                handshake.doHandshake(key);
-                            }
-                            else if (att instanceof Connect connect) {
-                                connect.connect(key);
-                            }
-                            else if (att instanceof Proxy proxy) {
-                                proxy.transfer(key);
-                            }
+                            acceptAll((Listener) key.attachment());
                         }
                     } catch (Exception e) {
-                        try {
-                            key.channel().close();
-                        } catch (Exception ignored) {}
-                        key.cancel();
+                        Log.warn("Accept failed: " + e);
                     }
                 }
                 selector.selectedKeys().clear();
             }
+            for (Listener listener : listeners) {
+                try {
+                    acceptAll(listener);
+                } catch (IOException e) {
+                    Log.warn("Accept failed: " + e);
+                }
+                listener.close();
+            }
+            selector.close();
+            stopped.countDown();
+        }
+
+        private void acceptAll(Listener listener) throws IOException {
+            SocketChannel client;
+            while ((client = listener.accept()) != null) {
+                metrics.accepted.increment();
+                if (Log.sampled()) {
+                    Log.debug("Client: " + client.getRemoteAddress());
+                }
+                workers[next].register(client);
+                next = (next + 1) % workers.length;
+            }
+        }
+
+        private void drain() {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+            draining = true;
+            selector.wakeup();
+            try {
+                if (!stopped.await(drainTimeout, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                Log.info("Listener closed, draining " + metrics.activeClients.sum() + " clients");
+                while (metrics.activeClients.sum() > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            long left = metrics.activeClients.sum();
+            if (left > 0) {
+                Log.warn("Drain timeout, dropping " + left + " clients");
+            }
+            else {
+                Log.info("Drained");
+            }
         }
     }
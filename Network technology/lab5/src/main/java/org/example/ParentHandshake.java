@@ -0,0 +1,152 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+public class ParentHandshake {
+    private final Connect connect;
+    private final Worker worker;
+    private final Chain chain;
+    private final Chain.Parent parent;
+    private SocketChannel channel;
+    private ByteBuffer buffer;
+    private boolean released = false;
+    private final int MAXSIZE = 512;
+    private final int MASK = 0xFF;
+    private final byte VERSION = 0x05;
+    private final byte NO_AUTH = 0x00;
+    private final byte IPV4 = 0x01;
+    private final byte DOMAIN = 0x03;
+    private final byte IPV6 = 0x04;
+
+    public ParentHandshake(Connect connect, Worker worker, Chain.Parent parent) {
+        this.connect = connect;
+        this.worker = worker;
+        this.chain = worker.getChain();
+        this.parent = parent;
+    }
+
+    // target задаётся, когда имя уже разрешено и проверено ACL: тогда родителю уходит адрес, а не имя
+    public void start(Socks5Parser request, InetAddress target) throws IOException {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        buffer = worker.getBuffers().acquire(MAXSIZE, this);
+        buffer.put(VERSION).put((byte) 1).put(NO_AUTH);
+        buffer.put(VERSION).put(request.getCommand()).put((byte) 0);
+        if (target != null) {
+            byte[] address = target.getAddress();
+            buffer.put(address.length == 4 ? IPV4 : IPV6).put(address);
+        }
+        else if (request.getDomain() != null) {
+            byte[] domain = request.getDomain().getBytes(StandardCharsets.US_ASCII);
+            buffer.put(DOMAIN).put((byte) domain.length).put(domain);
+        }
+        else {
+            byte[] address = request.getAddress().getAddress();
+            buffer.put(address.length == 4 ? IPV4 : IPV6).put(address);
+        }
+        buffer.putShort((short) request.getPort());
+        buffer.flip();
+        if (channel.connect(parent.getAddress())) {
+            send(channel.register(worker.getSelector(), 0, this));
+        }
+        else {
+            channel.register(worker.getSelector(), SelectionKey.OP_CONNECT, this);
+        }
+    }
+
+    public void finishConnect(SelectionKey key) throws IOException {
+        if (channel.finishConnect()) {
+            send(key);
+        }
+    }
+
+    private void send(SelectionKey key) throws IOException {
+        channel.write(buffer);
+        if (buffer.hasRemaining()) {
+            throw new IOException("Parent did not accept the request");
+        }
+        buffer.clear();
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    public void read(SelectionKey key) throws IOException {
+        if (channel.read(buffer) == -1) {
+            throw new IOException("Parent closed the connection");
+        }
+        buffer.flip();
+        if (buffer.remaining() < 2) {
+            buffer.compact();
+            return;
+        }
+        if (buffer.get(0) != VERSION || buffer.get(1) != NO_AUTH) {
+            throw new IOException("Parent refused method selection");
+        }
+        int length = replyLength();
+        if (length < 0 || buffer.remaining() < length) {
+            buffer.compact();
+            return;
+        }
+        if (buffer.get(2) != VERSION) {
+            throw new IOException("Parent sent a reply with version " + buffer.get(2));
+        }
+        byte rep = buffer.get(3);
+        chain.succeeded(parent);
+        if (rep != Connect.SUCCEEDED) {
+            connect.fail(rep);
+            return;
+        }
+        buffer.position(length);
+        key.interestOps(0);
+        connect.chained(channel, buffer);
+    }
+
+    private int replyLength() throws IOException {
+        if (buffer.remaining() < 6) {
+            return -1;
+        }
+        return switch (buffer.get(5)) {
+            case IPV4 -> 2 + 4 + 4 + 2;
+            case IPV6 -> 2 + 4 + 16 + 2;
+            case DOMAIN -> buffer.remaining() < 7 ? -1 : 2 + 4 + 1 + (buffer.get(6) & MASK) + 2;
+            default -> throw new IOException("Parent sent an unknown address type");
+        };
+    }
+
+    public void failed() {
+        chain.failed(parent);
+        if (Log.sampled()) {
+            Log.debug("Parent " + parent.getAddress() + " failed");
+        }
+        close();
+        connect.parentFailed();
+    }
+
+    public void releaseBuffer() {
+        if (buffer != null) {
+            worker.getBuffers().release(buffer);
+            buffer = null;
+        }
+    }
+
+    public void release() {
+        if (!released) {
+            released = true;
+            parent.release();
+        }
+    }
+
+    public void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {}
+        releaseBuffer();
+        release();
+    }
+}
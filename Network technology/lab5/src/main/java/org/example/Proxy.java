@@ -1,41 +1,317 @@
 package org.example;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 
-import static org.example.MySelector.TRANSFER_BUFFER;
-
 public class Proxy {
     private final SocketChannel client;
     private final SocketChannel remote;
+    private final int segments;
+    private final BufferPool pool;
+    private final long idleTimeout;
+    private final Timers.Timer idle;
+    private final Worker worker;
+    private final Metrics metrics;
+    private final Credentials.User user;
+    private final Shaper shaper;
+    private Shaper.Limits limits;
+    private Runnable onClose;
+    private Capture.Flow capture;
+    private final long openedAt = System.nanoTime();
+    private volatile long bytesUpstream = 0;
+    private volatile long bytesDownstream = 0;
+    private Direction upstream;
+    private Direction downstream;
+    private SelectionKey clientKey;
+    private boolean closed = false;
 
-    public Proxy(SocketChannel client, SocketChannel remote) {
+    public Proxy(SocketChannel client, SocketChannel remote, Worker worker, Credentials.User user) {
         this.client = client;
+        this.user = user;
         this.remote = remote;
+        this.worker = worker;
+        this.metrics = worker.getMetrics();
+        this.segments = worker.getRelaySegments();
+        this.pool = worker.getBuffers();
+        this.idleTimeout = worker.getIdleTimeout();
+        this.idle = worker.getTimers().schedule(idleTimeout, this::close);
+        this.shaper = worker.getShaper();
+    }
+
+    public void onClose(Runnable action) {
+        this.onClose = action;
+    }
+
+    public void capture(Capture.Flow flow) {
+        this.capture = flow;
     }
 
-    public void transfer(SelectionKey key) throws IOException {
-        SocketChannel from = (SocketChannel) key.channel();
-        SocketChannel to;
-        if (from == client) {
-            to = remote;
+    public void register(Selector selector) throws IOException {
+        register(selector, null, null);
+    }
+
+    // early уже прочитаны от клиента и идут адресату, late - пришли от адресата раньше открытия туннеля
+    public void register(Selector selector, byte[] early, byte[] late) throws IOException {
+        clientKey = client.register(selector, SelectionKey.OP_READ, this);
+        SelectionKey remoteKey = remote.register(selector, SelectionKey.OP_READ, this);
+        upstream = new Direction(clientKey, remoteKey, acquire());
+        downstream = new Direction(remoteKey, clientKey, acquire());
+        if (shaper != null) {
+            limits = shaper.open(((InetSocketAddress) client.getRemoteAddress()).getAddress(), user,
+                    ((InetSocketAddress) remote.getRemoteAddress()).getAddress());
+        }
+        worker.getTunnels().add(this);
+        metrics.tunnelsOpened.increment();
+        metrics.activeTunnels.increment();
+        if (user != null) {
+            user.connections.increment();
+            user.active.increment();
+        }
+        if (early != null && early.length > 0) {
+            preload(upstream, early);
+        }
+        if (late != null && late.length > 0) {
+            preload(downstream, late);
+        }
+    }
+
+    private void preload(Direction direction, byte[] data) throws IOException {
+        direction.buffers[0].put(data);
+        if (capture != null) {
+            capture.record(direction == upstream, direction.buffers, data.length);
+        }
+        if (direction == upstream) {
+            countUpstream(data.length);
         }
         else {
-            to = client;
+            countDownstream(data.length);
+        }
+        if (limits != null) {
+            limits.consume(data.length);
         }
-        ByteBuffer buffer = TRANSFER_BUFFER.get();
-        buffer.clear();
-        int read = from.read(buffer);
+        for (ByteBuffer buffer : direction.buffers) {
+            buffer.flip();
+        }
+        flush(direction);
+    }
+
+    private ByteBuffer[] acquire() {
+        ByteBuffer[] buffers = new ByteBuffer[segments];
+        for (int i = 0; i < segments; i++) {
+            buffers[i] = pool.acquire(32768, this);
+        }
+        return buffers;
+    }
+
+    public boolean transfer(SelectionKey key, long quantum) throws IOException {
+        idle.reschedule(idleTimeout);
+        Direction direction = key == clientKey ? upstream : downstream;
+        direction.deficit = Math.min(direction.deficit + quantum, quantum + direction.capacity);
+        long budget = direction.deficit;
+        if (limits != null) {
+            budget = Math.min(budget, tokens(direction));
+            if (budget <= 0) {
+                direction.deficit = 0;
+                return false;
+            }
+        }
+        long capacity = cap(direction.buffers, budget);
+        long read = ((SocketChannel) key.channel()).read(direction.buffers);
         if (read == -1) {
+            direction.eof = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        else if (read > 0) {
+            direction.deficit -= read;
+            if (limits != null) {
+                limits.consume(read);
+            }
+            if (capture != null) {
+                capture.record(direction == upstream, direction.buffers, read);
+            }
+            if (direction == upstream) {
+                countUpstream(read);
+            }
+            else {
+                countDownstream(read);
+            }
+        }
+        for (ByteBuffer buffer : direction.buffers) {
+            buffer.flip();
+        }
+        flush(direction);
+        boolean more = read == capacity && key.isValid() && (key.interestOps() & SelectionKey.OP_READ) != 0;
+        if (!more) {
+            direction.deficit = 0;
+        }
+        return more;
+    }
+
+    private static long cap(ByteBuffer[] buffers, long budget) {
+        long capacity = 0;
+        for (ByteBuffer buffer : buffers) {
+            int room = (int) Math.min(buffer.capacity(), budget - capacity);
+            buffer.limit(room);
+            capacity += room;
+        }
+        return capacity;
+    }
+
+    private long tokens(Direction direction) {
+        long available = limits.available();
+        if (available <= 0) {
+            direction.from.interestOps(direction.from.interestOps() & ~SelectionKey.OP_READ);
+            long delay = Math.max(1, limits.delayMillis(direction.buffers[0].capacity()));
+            if (direction.wake == null) {
+                direction.wake = worker.getTimers().schedule(delay, () -> resume(direction));
+            }
+            else {
+                direction.wake.reschedule(delay);
+            }
+            metrics.shaperWaits.increment();
+        }
+        return available;
+    }
+
+    private void resume(Direction direction) {
+        if (!closed && direction.from.isValid() && !direction.eof) {
+            direction.from.interestOps(direction.from.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    private void countUpstream(long read) {
+        bytesUpstream += read;
+        metrics.bytesUpstream.add(read);
+        if (user != null) {
+            user.bytesUpstream.add(read);
+        }
+    }
+
+    private void countDownstream(long read) {
+        if (bytesDownstream == 0) {
+            metrics.firstByte.record(Metrics.micros(openedAt));
+        }
+        bytesDownstream += read;
+        metrics.bytesDownstream.add(read);
+        if (user != null) {
+            user.bytesDownstream.add(read);
+        }
+    }
+
+    public void write(SelectionKey key) throws IOException {
+        flush(key == clientKey ? downstream : upstream);
+    }
+
+    private void flush(Direction direction) throws IOException {
+        ByteBuffer[] buffers = direction.buffers;
+        ((SocketChannel) direction.to.channel()).write(buffers);
+        if (hasRemaining(buffers)) {
+            direction.from.interestOps(direction.from.interestOps() & ~SelectionKey.OP_READ);
+            direction.to.interestOps(direction.to.interestOps() | SelectionKey.OP_WRITE);
+            return;
+        }
+        for (ByteBuffer buffer : buffers) {
+            buffer.clear();
+        }
+        direction.to.interestOps(direction.to.interestOps() & ~SelectionKey.OP_WRITE);
+        if (!direction.eof) {
+            direction.from.interestOps(direction.from.interestOps() | SelectionKey.OP_READ);
+            return;
+        }
+        ((SocketChannel) direction.to.channel()).shutdownOutput();
+        direction.done = true;
+        if (upstream.done && downstream.done) {
+            close();
+        }
+    }
+
+    public void describe(StringBuilder out) {
+        if (user != null) {
+            out.append(user.getName()).append('@');
+        }
+        out.append(client.socket().getRemoteSocketAddress()).append(" -> ")
+                .append(remote.socket().getRemoteSocketAddress())
+                .append(" up=").append(bytesUpstream)
+                .append(" down=").append(bytesDownstream)
+                .append(" age_ms=").append((System.nanoTime() - openedAt) / 1_000_000)
+                .append('\n');
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        idle.cancel();
+        if (limits != null) {
+            limits.close();
+            for (Direction direction : new Direction[]{upstream, downstream}) {
+                if (direction.wake != null) {
+                    direction.wake.cancel();
+                }
+            }
+        }
+        if (onClose != null) {
+            onClose.run();
+        }
+        if (capture != null) {
+            capture.close();
+        }
+        worker.getTunnels().remove(this);
+        metrics.activeTunnels.decrement();
+        metrics.activeClients.decrement();
+        if (user != null) {
+            user.active.decrement();
+        }
+        if (Log.sampled()) {
+            Log.debug("Tunnel closed: " + bytesUpstream + " bytes up, " + bytesDownstream + " bytes down");
+        }
+        try {
             client.close();
+        } catch (IOException ignored) {}
+        try {
             remote.close();
-            return;
+        } catch (IOException ignored) {}
+        if (upstream != null) {
+            for (int i = 0; i < segments; i++) {
+                pool.release(upstream.buffers[i]);
+                pool.release(downstream.buffers[i]);
+            }
         }
-        if (read > 0) {
-            buffer.flip();
-            to.write(buffer);
+    }
+
+    private static class Direction {
+        private final SelectionKey from;
+        private final SelectionKey to;
+        private final ByteBuffer[] buffers;
+        private boolean eof = false;
+        private boolean done = false;
+        private final long capacity;
+        private long deficit = 0;
+        private Timers.Timer wake;
+
+        private Direction(SelectionKey from, SelectionKey to, ByteBuffer[] buffers) {
+            this.from = from;
+            this.to = to;
+            this.buffers = buffers;
+            long capacity = 0;
+            for (ByteBuffer buffer : buffers) {
+                capacity += buffer.capacity();
+            }
+            this.capacity = capacity;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package org.example;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Shaper {
+    private final long burst;
+    private final Table<InetAddress> clients;
+    private final Table<String> users;
+    private final Table<InetAddress> destinations;
+
+    private Shaper(long client, long user, long destination, long burst) {
+        this.burst = burst;
+        this.clients = new Table<>(client);
+        this.users = new Table<>(user);
+        this.destinations = new Table<>(destination);
+    }
+
+    public static Shaper create(Config config) {
+        long client = config.getLong("shape.client", 0);
+        long user = config.getLong("shape.user", 0);
+        long destination = config.getLong("shape.destination", 0);
+        if (client <= 0 && user <= 0 && destination <= 0) {
+            return null;
+        }
+        return new Shaper(client, user, destination, config.getLong("shape.burst", 65536));
+    }
+
+    public Limits open(InetAddress client, Credentials.User user, InetAddress destination) {
+        Limits limits = new Limits(client, user == null ? null : user.getName(), destination);
+        return limits.count == 0 ? null : limits;
+    }
+
+    public class Limits {
+        private final InetAddress client;
+        private final String user;
+        private final InetAddress destination;
+        private final TokenBucket[] buckets = new TokenBucket[3];
+        private int count = 0;
+
+        private Limits(InetAddress client, String user, InetAddress destination) {
+            this.client = client;
+            this.user = user;
+            this.destination = destination;
+            add(clients.acquire(client));
+            add(users.acquire(user));
+            add(destinations.acquire(destination));
+        }
+
+        private void add(TokenBucket bucket) {
+            if (bucket != null) {
+                buckets[count++] = bucket;
+            }
+        }
+
+        public long available() {
+            long available = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                available = Math.min(available, buckets[i].available());
+            }
+            return available;
+        }
+
+        public void consume(long amount) {
+            for (int i = 0; i < count; i++) {
+                buckets[i].consume(amount);
+            }
+        }
+
+        public long delayMillis(long wanted) {
+            long delay = 0;
+            for (int i = 0; i < count; i++) {
+                delay = Math.max(delay, buckets[i].delayMillis(Math.min(wanted, burst)));
+            }
+            return delay;
+        }
+
+        public void close() {
+            clients.release(client);
+            users.release(user);
+            destinations.release(destination);
+        }
+    }
+
+    private class Table<K> {
+        private final long rate;
+        private final ConcurrentHashMap<K, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+        private Table(long rate) {
+            this.rate = rate;
+        }
+
+        private TokenBucket acquire(K key) {
+            if (rate <= 0 || key == null) {
+                return null;
+            }
+            return buckets.compute(key, (k, bucket) -> {
+                if (bucket == null) {
+                    bucket = new TokenBucket(rate, burst);
+                }
+                bucket.refs++;
+                return bucket;
+            });
+        }
+
+        private void release(K key) {
+            if (rate <= 0 || key == null) {
+                return;
+            }
+            buckets.computeIfPresent(key, (k, bucket) -> --bucket.refs == 0 ? null : bucket);
+        }
+    }
+}
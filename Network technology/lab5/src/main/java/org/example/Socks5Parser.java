@@ -0,0 +1,165 @@
+package org.example;
+
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class Socks5Parser {
+    public enum Result { NEED_MORE, GREETING, AUTH, REQUEST }
+
+    private enum State { GREETING, AUTH, REQUEST, DONE }
+
+    public static final byte CONNECT = 0x01;
+    public static final byte BIND = 0x02;
+    public static final byte UDP_ASSOCIATE = 0x03;
+    public static final byte NO_AUTH = 0x00;
+    public static final byte PASSWORD = 0x02;
+    // Буфер рукопожатия: приветствие (до 257 байт), RFC 1929 (до 513) и запрос (до 262), присланные одним пакетом, плюс ранние данные
+    public static final int MAXSIZE = 4096;
+    private static final byte AUTH_VERSION = 0x01;
+    private static final byte VERSION = 0x05;
+    private static final byte IPV4 = 0x01;
+    private static final byte DOMAIN = 0x03;
+    private static final byte IPV6 = 0x04;
+    private static final int MASK = 0xFF;
+
+    private State state = State.GREETING;
+    private long methods;
+    private String username;
+    private byte[] password;
+    private byte command;
+    private InetAddress address;
+    private String domain;
+    private int port;
+
+    public Result parse(ByteBuffer buffer) throws ProtocolException, UnknownHostException {
+        int start = buffer.position();
+        Result result = switch (state) {
+            case GREETING -> greeting(buffer);
+            case AUTH -> auth(buffer);
+            case REQUEST -> request(buffer);
+            case DONE -> throw new ProtocolException("Request already parsed");
+        };
+        if (result == Result.NEED_MORE) {
+            buffer.position(start);
+        }
+        return result;
+    }
+
+    private Result greeting(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < 2) {
+            return Result.NEED_MORE;
+        }
+        version(buffer.get());
+        int methods = buffer.get() & MASK;
+        if (buffer.remaining() < methods) {
+            return Result.NEED_MORE;
+        }
+        this.methods = 0;
+        for (int i = 0; i < methods; i++) {
+            int method = buffer.get() & MASK;
+            if (method < Long.SIZE) {
+                this.methods |= 1L << method;
+            }
+        }
+        state = State.REQUEST;
+        return Result.GREETING;
+    }
+
+    private Result auth(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < 2) {
+            return Result.NEED_MORE;
+        }
+        if (buffer.get() != AUTH_VERSION) {
+            throw new ProtocolException("Unsupported auth version");
+        }
+        int nameLength = buffer.get() & MASK;
+        if (buffer.remaining() < nameLength + 1) {
+            return Result.NEED_MORE;
+        }
+        byte[] name = new byte[nameLength];
+        buffer.get(name);
+        int passwordLength = buffer.get() & MASK;
+        if (buffer.remaining() < passwordLength) {
+            return Result.NEED_MORE;
+        }
+        password = new byte[passwordLength];
+        buffer.get(password);
+        username = new String(name, StandardCharsets.UTF_8);
+        state = State.REQUEST;
+        return Result.AUTH;
+    }
+
+    public boolean offers(byte method) {
+        return (methods & 1L << method) != 0;
+    }
+
+    public void expectAuth() {
+        state = State.AUTH;
+    }
+
+    private Result request(ByteBuffer buffer) throws ProtocolException, UnknownHostException {
+        if (buffer.remaining() < 5) {
+            return Result.NEED_MORE;
+        }
+        version(buffer.get());
+        byte cmd = buffer.get();
+        buffer.get();
+        byte type = buffer.get();
+        int length = switch (type) {
+            case IPV4 -> 4;
+            case IPV6 -> 16;
+            case DOMAIN -> buffer.get() & MASK;
+            default -> throw new ProtocolException("Unsupported address type " + type);
+        };
+        if (buffer.remaining() < length + 2) {
+            return Result.NEED_MORE;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        if (type == DOMAIN) {
+            domain = new String(bytes, StandardCharsets.US_ASCII).toLowerCase();
+            address = null;
+        }
+        else {
+            address = InetAddress.getByAddress(bytes);
+            domain = null;
+        }
+        port = (buffer.get() & MASK) << 8 | (buffer.get() & MASK);
+        command = cmd;
+        state = State.DONE;
+        return Result.REQUEST;
+    }
+
+    private static void version(byte version) throws ProtocolException {
+        if (version != VERSION) {
+            throw new ProtocolException("Unsupported SOCKS version " + version);
+        }
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public byte[] getPassword() {
+        return password;
+    }
+
+    public byte getCommand() {
+        return command;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public int getPort() {
+        return port;
+    }
+}
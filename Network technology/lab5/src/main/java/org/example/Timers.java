@@ -0,0 +1,132 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Timers {
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+    private final Timer[] wheel = new Timer[WHEEL_SIZE];
+    private final long tickNanos;
+    private final long start = System.nanoTime();
+    private final List<Timer> expired = new ArrayList<>();
+    private long processedTick = 0;
+    private int count = 0;
+
+    public Timers(long tickMillis) {
+        this.tickNanos = Math.max(1, tickMillis) * 1_000_000L;
+    }
+
+    public Timer schedule(long delayMillis, Runnable task) {
+        Timer timer = new Timer(this, task);
+        timer.reschedule(delayMillis);
+        return timer;
+    }
+
+    public long nextDelay() {
+        if (count == 0) {
+            return 0;
+        }
+        for (int i = 1; i <= WHEEL_SIZE; i++) {
+            if (wheel[(int) ((processedTick + i) & MASK)] != null) {
+                long due = start + (processedTick + i) * tickNanos;
+                return Math.max(1, (due - System.nanoTime() + 999_999) / 1_000_000);
+            }
+        }
+        return 0;
+    }
+
+    public void runExpired() {
+        long nowTick = (System.nanoTime() - start) / tickNanos;
+        while (processedTick < nowTick) {
+            processedTick++;
+            Timer timer = wheel[(int) (processedTick & MASK)];
+            while (timer != null) {
+                Timer next = timer.next;
+                if (timer.rounds == 0) {
+                    unlink(timer);
+                    expired.add(timer);
+                }
+                else {
+                    timer.rounds--;
+                }
+                timer = next;
+            }
+        }
+        for (int i = 0; i < expired.size(); i++) {
+            Timer timer = expired.get(i);
+            if (!timer.cancelled && !timer.linked) {
+                // Ошибка одной задачи не должна останавливать рабочий поток со всеми его соединениями
+                try {
+                    timer.task.run();
+                } catch (RuntimeException e) {
+                    Log.error("Timer task failed: " + e);
+                }
+            }
+        }
+        expired.clear();
+    }
+
+    private void link(Timer timer, long delayMillis) {
+        long deadlineTick = (System.nanoTime() - start + delayMillis * 1_000_000L + tickNanos - 1) / tickNanos;
+        if (deadlineTick <= processedTick) {
+            deadlineTick = processedTick + 1;
+        }
+        timer.rounds = (deadlineTick - processedTick - 1) / WHEEL_SIZE;
+        timer.bucket = (int) (deadlineTick & MASK);
+        timer.prev = null;
+        timer.next = wheel[timer.bucket];
+        if (timer.next != null) {
+            timer.next.prev = timer;
+        }
+        wheel[timer.bucket] = timer;
+        timer.linked = true;
+        count++;
+    }
+
+    private void unlink(Timer timer) {
+        if (!timer.linked) {
+            return;
+        }
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        }
+        else {
+            wheel[timer.bucket] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.linked = false;
+        count--;
+    }
+
+    public static class Timer {
+        private final Timers timers;
+        private final Runnable task;
+        private Timer prev;
+        private Timer next;
+        private int bucket;
+        private long rounds;
+        private boolean linked = false;
+        private boolean cancelled = false;
+
+        private Timer(Timers timers, Runnable task) {
+            this.timers = timers;
+            this.task = task;
+        }
+
+        public void reschedule(long delayMillis) {
+            timers.unlink(this);
+            cancelled = false;
+            timers.link(this, delayMillis);
+        }
+
+        public void cancel() {
+            cancelled = true;
+            timers.unlink(this);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.example;
+
+public class TokenBucket {
+    private final double tokensPerNano;
+    private final long burst;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    int refs;
+
+    public TokenBucket(long rate, long burst) {
+        this.tokensPerNano = rate / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    public synchronized long available() {
+        refill();
+        return (long) tokens;
+    }
+
+    public synchronized void consume(long amount) {
+        tokens -= amount;
+    }
+
+    public synchronized long delayMillis(long wanted) {
+        refill();
+        double missing = Math.min(wanted, burst) - tokens;
+        if (missing <= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(missing / tokensPerNano / 1_000_000);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,330 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class UdpAssociation {
+    private static final int HEADER_SPACE = 22;
+    private static final int MAX_DATAGRAM = 65536;
+    private final byte IPV4 = 0x01;
+    private final byte IPV6 = 0x04;
+    private final byte DNS = 0x03;
+    private final int MASK = 0xFF;
+    private final SocketChannel control;
+    private final DatagramChannel channel;
+    private final Worker worker;
+    private final InetAddress clientIp;
+    private InetSocketAddress clientAddress;
+    private ByteBuffer buffer;
+    // Порядок доступа: первым идёт пир, дольше всех не получавший датаграмм от клиента
+    private final LinkedHashMap<PeerKey, Peer> peers = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<InetSocketAddress, Peer> byAddress = new HashMap<>();
+    private final PeerKey probe = new PeerKey(new byte[255]);
+    private final Timers.Timer idle;
+    private final long timeout;
+    private final long peerTimeout;
+    private final int maxPeers;
+    private final int batch;
+    private boolean closed = false;
+
+    public UdpAssociation(SocketChannel control, Worker worker, InetAddress hintAddress, int hintPort) throws IOException {
+        this.control = control;
+        this.worker = worker;
+        this.timeout = worker.getUdpTimeout();
+        this.peerTimeout = worker.getUdpPeerTimeout() * 1_000_000L;
+        this.maxPeers = worker.getUdpMaxPeers();
+        this.batch = worker.getUdpBatch();
+        this.clientIp = ((InetSocketAddress) control.getRemoteAddress()).getAddress();
+        if (hintAddress != null && !hintAddress.isAnyLocalAddress() && hintPort != 0) {
+            clientAddress = new InetSocketAddress(hintAddress, hintPort);
+        }
+        InetAddress local = ((InetSocketAddress) control.getLocalAddress()).getAddress();
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, worker.getUdpReceiveBuffer());
+        channel.bind(new InetSocketAddress(local, 0));
+        buffer = worker.getBuffers().acquire(MAX_DATAGRAM, this);
+        idle = worker.getTimers().schedule(timeout, this::close);
+    }
+
+    public InetSocketAddress getBoundAddress() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    public void register(Selector selector) throws IOException {
+        control.register(selector, SelectionKey.OP_READ, this);
+        channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    public void read(SelectionKey key) throws IOException {
+        if (key.channel() == control) {
+            buffer.clear();
+            if (control.read(buffer) == -1) {
+                close();
+            }
+            return;
+        }
+        idle.reschedule(timeout);
+        long now = System.nanoTime();
+        for (int i = 0; i < batch; i++) {
+            buffer.clear();
+            buffer.position(HEADER_SPACE);
+            SocketAddress source = channel.receive(buffer);
+            if (source == null) {
+                return;
+            }
+            worker.getMetrics().udpDatagrams.increment();
+            InetSocketAddress sender = (InetSocketAddress) source;
+            if (sender.equals(clientAddress) || (clientAddress == null && sender.getAddress().equals(clientIp))) {
+                clientAddress = sender;
+                fromClient(now);
+            }
+            else {
+                fromPeer(sender, now);
+            }
+        }
+    }
+
+    private void fromClient(long now) throws IOException {
+        buffer.flip();
+        buffer.position(HEADER_SPACE);
+        if (buffer.remaining() < 10) {
+            return;
+        }
+        buffer.position(buffer.position() + 2);
+        if (buffer.get() != 0) {
+            return;
+        }
+        byte type = buffer.get();
+        Peer peer;
+        switch (type) {
+            case IPV4 -> peer = findPeer(IPV4, 4, now);
+            case IPV6 -> peer = findPeer(IPV6, 16, now);
+            case DNS -> peer = findDomainPeer(now);
+            default -> {
+                return;
+            }
+        }
+        if (peer == null) {
+            return;
+        }
+        peer.lastSeen = now;
+        if (!send(peer.address)) {
+            remove(peer);
+        }
+    }
+
+    private Peer findPeer(byte type, int length, long now) throws IOException {
+        if (buffer.remaining() < length + 2) {
+            return null;
+        }
+        probe.load(type, buffer, length);
+        Peer peer = live(now);
+        if (peer != null) {
+            return peer;
+        }
+        InetAddress address = InetAddress.getByAddress(Arrays.copyOf(probe.bytes, length));
+        Acl acl = worker.getAcl();
+        if (acl != null && !acl.allows(clientIp, address, probe.port)) {
+            deny(address.getHostAddress(), probe.port);
+            return null;
+        }
+        return addPeer(new Peer(new InetSocketAddress(address, probe.port)), now);
+    }
+
+    private Peer findDomainPeer(long now) {
+        int length = buffer.get() & MASK;
+        if (buffer.remaining() < length + 2) {
+            return null;
+        }
+        probe.load(DNS, buffer, length);
+        Peer peer = live(now);
+        if (peer != null) {
+            return peer;
+        }
+        int port = probe.port;
+        String domain = new String(probe.bytes, 0, length, StandardCharsets.US_ASCII).toLowerCase();
+        Acl acl = worker.getAcl();
+        if (acl != null && !acl.allows(clientIp, domain, port)) {
+            deny(domain, port);
+            return null;
+        }
+        DNSCache.Entry cached = worker.getResolver().lookup(domain);
+        if (cached == null || cached.getAddresses().length == 0) {
+            return null;
+        }
+        InetAddress[] resolved = cached.getAddresses();
+        if (acl != null) {
+            resolved = acl.filterResolved(clientIp, resolved, port);
+            if (resolved.length == 0) {
+                deny(domain, port);
+                return null;
+            }
+        }
+        return addPeer(new Peer(new InetSocketAddress(resolved[0], port)), now);
+    }
+
+    // Запрещённый пир не запоминается, поэтому каждая его датаграмма проверяется и отбрасывается заново
+    private void deny(String destination, int port) {
+        worker.getMetrics().aclDenied.increment();
+        if (Log.sampled()) {
+            Log.debug("UDP denied by ACL: " + destination + ":" + port);
+        }
+    }
+
+    private Peer live(long now) {
+        Peer peer = peers.get(probe);
+        if (peer != null && now - peer.lastSeen > peerTimeout) {
+            remove(peer);
+            return null;
+        }
+        return peer;
+    }
+
+    private Peer addPeer(Peer peer, long now) {
+        Iterator<Peer> eldest = peers.values().iterator();
+        while (eldest.hasNext()) {
+            Peer old = eldest.next();
+            if (now - old.lastSeen <= peerTimeout && peers.size() < maxPeers) {
+                break;
+            }
+            eldest.remove();
+            byAddress.remove(old.address, old);
+        }
+        peer.key = probe.copy();
+        peers.put(peer.key, peer);
+        byAddress.put(peer.address, peer);
+        return peer;
+    }
+
+    private void remove(Peer peer) {
+        peers.remove(peer.key);
+        byAddress.remove(peer.address, peer);
+    }
+
+    private void fromPeer(InetSocketAddress sender, long now) {
+        if (clientAddress == null) {
+            return;
+        }
+        Peer peer = byAddress.get(sender);
+        if (peer == null || now - peer.lastSeen > peerTimeout) {
+            return;
+        }
+        int end = buffer.position();
+        int start = HEADER_SPACE - peer.header.length;
+        buffer.position(start);
+        buffer.put(peer.header);
+        buffer.limit(end);
+        buffer.position(start);
+        send(clientAddress);
+    }
+
+    // Ошибка отправки одной датаграммы (нет маршрута, адресат запрещён ядром) не должна рвать всю ассоциацию
+    private boolean send(InetSocketAddress target) {
+        try {
+            channel.send(buffer, target);
+            return true;
+        } catch (IOException e) {
+            worker.getMetrics().udpDropped.increment();
+            if (Log.sampled()) {
+                Log.debug("UDP send to " + target + " failed: " + e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        idle.cancel();
+        worker.getMetrics().activeClients.decrement();
+        try {
+            control.close();
+        } catch (IOException ignored) {}
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        worker.getBuffers().release(buffer);
+        buffer = null;
+    }
+
+    private static class Peer {
+        private final InetSocketAddress address;
+        private final byte[] header;
+        private PeerKey key;
+        private long lastSeen;
+
+        private Peer(InetSocketAddress address) {
+            this.address = address;
+            byte[] ip = address.getAddress().getAddress();
+            header = Arrays.copyOf(new byte[]{0, 0, 0, (byte) (ip.length == 4 ? 0x01 : 0x04)}, 6 + ip.length);
+            System.arraycopy(ip, 0, header, 4, ip.length);
+            header[4 + ip.length] = (byte) (address.getPort() >> 8);
+            header[5 + ip.length] = (byte) address.getPort();
+        }
+    }
+
+    // Тип адреса, его байты из заголовка SOCKS и порт. Один экземпляр переиспользуется для поиска
+    // без выделения памяти, в таблицу кладётся копия
+    private static class PeerKey {
+        private final byte[] bytes;
+        private byte type;
+        private int length;
+        private int port;
+        private int hash;
+
+        private PeerKey(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private void load(byte type, ByteBuffer buffer, int length) {
+            this.type = type;
+            this.length = length;
+            buffer.get(bytes, 0, length);
+            port = buffer.getShort() & 0xFFFF;
+            int h = 31 * type + port;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            hash = h;
+        }
+
+        private PeerKey copy() {
+            PeerKey key = new PeerKey(Arrays.copyOf(bytes, length));
+            key.type = type;
+            key.length = length;
+            key.port = port;
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PeerKey other) || other.type != type || other.port != port || other.length != length) {
+                return false;
+            }
+            return Arrays.equals(bytes, 0, length, other.bytes, 0, length);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+public class UpstreamPool {
+    private static final int BANNER = 4096;
+    private final Selector selector;
+    private final Timers timers;
+    private final DNSResolver resolver;
+    private final int perDestination;
+    private final long idleTimeout;
+    private final long retryDelay;
+    private final Map<String, Destination> destinations = new HashMap<>();
+
+    public UpstreamPool(Selector selector, Timers timers, DNSResolver resolver, Config config) throws IOException {
+        this.selector = selector;
+        this.timers = timers;
+        this.resolver = resolver;
+        this.perDestination = config.getInt("pool.perDestination", 4);
+        this.idleTimeout = config.getLong("pool.idleTimeout", 30000);
+        this.retryDelay = config.getLong("pool.retryDelay", 1000);
+        String list = config.getString("pool.destinations", "");
+        for (String entry : list.split(",")) {
+            entry = entry.trim().toLowerCase();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            String host = entry.startsWith("[") ? entry.substring(1, colon - 1) : entry.substring(0, colon);
+            int port = Integer.parseInt(entry.substring(colon + 1));
+            // Литералы разбираются сразу, имена - через DNSResolver рабочего потока при каждом пополнении
+            InetAddress literal = host.contains(":") || host.matches("[0-9.]+") ? InetAddress.getByName(host) : null;
+            destinations.put(key(literal != null ? literal.getHostAddress() : host, port), new Destination(host, port, literal));
+        }
+    }
+
+    public boolean isEmpty() {
+        return destinations.isEmpty();
+    }
+
+    public void fillAll() {
+        for (Destination destination : destinations.values()) {
+            fill(destination);
+        }
+    }
+
+    // Пул пополняется только здесь и при старте, поэтому без запросов он усыхает по pool.idleTimeout
+    public Pooled take(String domain, int port) {
+        return take(key(domain.toLowerCase(), port));
+    }
+
+    public Pooled take(InetAddress address, int port) {
+        return take(key(address.getHostAddress(), port));
+    }
+
+    // Литералы приводятся к getHostAddress(), имена - к нижнему регистру, как в pool.destinations
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    private Pooled take(String key) {
+        Destination destination = destinations.get(key);
+        if (destination == null) {
+            return null;
+        }
+        Pooled pooled = destination.idle.pollFirst();
+        if (pooled != null) {
+            pooled.timer.cancel();
+        }
+        fill(destination);
+        return pooled;
+    }
+
+    private InetSocketAddress resolve(Destination destination) {
+        if (destination.literal != null) {
+            return new InetSocketAddress(destination.literal, destination.port);
+        }
+        DNSCache.Entry cached = resolver.lookup(destination.host);
+        if (cached == null || cached.getAddresses().length == 0) {
+            return null;
+        }
+        return new InetSocketAddress(cached.getAddresses()[0], destination.port);
+    }
+
+    private void fill(Destination destination) {
+        if (destination.idle.size() + destination.connecting >= perDestination) {
+            return;
+        }
+        InetSocketAddress address = resolve(destination);
+        if (address == null) {
+            retryLater(destination);
+            return;
+        }
+        while (destination.idle.size() + destination.connecting < perDestination) {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                Pooled pooled = new Pooled(destination, channel);
+                if (channel.connect(address)) {
+                    park(pooled);
+                }
+                else {
+                    destination.connecting++;
+                    channel.register(selector, SelectionKey.OP_CONNECT, pooled);
+                }
+            } catch (IOException e) {
+                Log.warn("Pool connect to " + address + " failed: " + e);
+                close(channel);
+                retryLater(destination);
+                return;
+            }
+        }
+    }
+
+    private void retryLater(Destination destination) {
+        if (destination.retry) {
+            return;
+        }
+        destination.retry = true;
+        timers.schedule(retryDelay, () -> {
+            destination.retry = false;
+            fill(destination);
+        });
+    }
+
+    public void finishConnect(SelectionKey key) {
+        Pooled pooled = (Pooled) key.attachment();
+        pooled.destination.connecting--;
+        try {
+            if (!pooled.channel.finishConnect()) {
+                pooled.destination.connecting++;
+                return;
+            }
+            park(pooled);
+        } catch (IOException e) {
+            close(pooled.channel);
+            retryLater(pooled.destination);
+        }
+    }
+
+    private void park(Pooled pooled) throws IOException {
+        pooled.channel.register(selector, SelectionKey.OP_READ, pooled);
+        pooled.timer = timers.schedule(idleTimeout, () -> evict(pooled));
+        pooled.destination.idle.addLast(pooled);
+    }
+
+    // Приветствие сервера (SMTP, FTP и т. п.) копится и отдаётся клиенту при выдаче соединения
+    public void read(SelectionKey key) {
+        Pooled pooled = (Pooled) key.attachment();
+        if (pooled.banner == null) {
+            pooled.banner = ByteBuffer.allocate(BANNER);
+        }
+        int read;
+        try {
+            read = pooled.channel.read(pooled.banner);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if (read == -1 || !pooled.banner.hasRemaining()) {
+            pooled.timer.cancel();
+            evict(pooled);
+        }
+    }
+
+    private void evict(Pooled pooled) {
+        pooled.destination.idle.remove(pooled);
+        close(pooled.channel);
+    }
+
+    private static void close(SocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+
+    private static class Destination {
+        private final String host;
+        private final int port;
+        private final InetAddress literal;
+        private final ArrayDeque<Pooled> idle = new ArrayDeque<>();
+        private int connecting = 0;
+        private boolean retry = false;
+
+        private Destination(String host, int port, InetAddress literal) {
+            this.host = host;
+            this.port = port;
+            this.literal = literal;
+        }
+    }
+
+    public static class Pooled {
+        private final Destination destination;
+        private final SocketChannel channel;
+        private Timers.Timer timer;
+        private ByteBuffer banner;
+
+        private Pooled(Destination destination, SocketChannel channel) {
+            this.destination = destination;
+            this.channel = channel;
+        }
+
+        public SocketChannel getChannel() {
+            return channel;
+        }
+
+        public byte[] getBanner() {
+            if (banner == null) {
+                return null;
+            }
+            byte[] data = new byte[banner.position()];
+            banner.get(0, data);
+            return data;
+        }
+    }
+}
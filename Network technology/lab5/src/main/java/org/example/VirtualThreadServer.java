@@ -0,0 +1,354 @@
+package org.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualThreadServer {
+    private final int port;
+    private final Config config;
+    private final Metrics metrics = new Metrics();
+    private final Credentials credentials;
+    private final Acl acl;
+    private final int handshakeTimeout;
+    private final int connectTimeout;
+    private final long idleTimeout;
+    private final long drainTimeout;
+    private volatile boolean draining = false;
+    private final InetSocketAddress unspecified;
+    private final int BUFFER = 32768;
+    private final byte VERSION = 0x05;
+    private final byte NO_ACCEPTABLE = (byte) 0xFF;
+    private final byte AUTH_VERSION = 0x01;
+    private final byte AUTH_SUCCESS = 0x00;
+    private final byte AUTH_FAILURE = 0x01;
+
+    public VirtualThreadServer(int port, Config config) throws IOException {
+        this.port = port;
+        this.config = config;
+        Log.configure(config);
+        String users = config.getString("auth.users", "");
+        credentials = users.isEmpty() ? null : new Credentials(Path.of(users), config.getLong("auth.reloadInterval", 5000));
+        acl = Acl.create(config);
+        handshakeTimeout = (int) config.getLong("timeout.handshake", 10000);
+        connectTimeout = (int) config.getLong("timeout.connect", 15000);
+        idleTimeout = config.getLong("timeout.idle", 300000);
+        drainTimeout = config.getLong("drain.timeout", 30000);
+        unspecified = new InetSocketAddress(InetAddress.getByAddress(new byte[4]), 0);
+    }
+
+    public void start() throws IOException {
+        int metricsPort = config.getInt("metrics.port", 0);
+        if (metricsPort > 0) {
+            String metricsAddress = config.getString("metrics.address", "127.0.0.1");
+            new MetricsServer(new InetSocketAddress(metricsAddress, metricsPort), metrics, credentials, null, new Worker[0]).start();
+            Log.info("Metrics on http://" + metricsAddress + ":" + metricsPort + "/metrics");
+        }
+        List<Listener> listeners = Listener.create(config, port);
+        for (Listener listener : listeners) {
+            listener.open();
+            Log.info("Listening on " + listener.getAddress());
+        }
+        if (drainTimeout > 0) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(listeners), "socks-drain"));
+        }
+        List<Thread> acceptors = new ArrayList<>();
+        for (Listener listener : listeners) {
+            acceptors.add(Thread.ofPlatform().name("socks-accept").start(() -> acceptAll(listener)));
+        }
+        try {
+            for (Thread acceptor : acceptors) {
+                acceptor.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptAll(Listener listener) {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = listener.accept();
+            } catch (IOException e) {
+                if (draining) {
+                    return;
+                }
+                Log.warn("Accept failed: " + e);
+                continue;
+            }
+            metrics.accepted.increment();
+            Socket socket = client.socket();
+            if (Log.sampled()) {
+                Log.debug("Client: " + socket.getRemoteSocketAddress());
+            }
+            Thread.ofVirtual().name("socks-client").start(() -> serve(socket));
+        }
+    }
+
+    private void drain(List<Listener> listeners) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+        draining = true;
+        listeners.forEach(Listener::close);
+        Log.info("Listener closed, draining " + metrics.activeClients.sum() + " clients");
+        try {
+            while (metrics.activeClients.sum() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+        long left = metrics.activeClients.sum();
+        if (left > 0) {
+            Log.warn("Drain timeout, dropping " + left + " clients");
+        }
+        else {
+            Log.info("Drained");
+        }
+    }
+
+    private void serve(Socket client) {
+        long acceptedAt = System.nanoTime();
+        metrics.activeClients.increment();
+        try (client) {
+            long deadline = acceptedAt + TimeUnit.MILLISECONDS.toNanos(handshakeTimeout);
+            InputStream in = client.getInputStream();
+            OutputStream out = client.getOutputStream();
+            Socks5Parser parser = new Socks5Parser();
+            ByteBuffer buffer = ByteBuffer.allocate(Socks5Parser.MAXSIZE).flip();
+            next(parser, client, in, buffer, deadline);
+            Credentials.User user = null;
+            if (credentials == null) {
+                out.write(new byte[]{VERSION, Socks5Parser.NO_AUTH});
+            }
+            else if (parser.offers(Socks5Parser.PASSWORD)) {
+                out.write(new byte[]{VERSION, Socks5Parser.PASSWORD});
+                parser.expectAuth();
+                next(parser, client, in, buffer, deadline);
+                user = credentials.authenticate(parser.getUsername(), parser.getPassword());
+                if (user == null) {
+                    metrics.authFailures.increment();
+                    out.write(new byte[]{AUTH_VERSION, AUTH_FAILURE});
+                    return;
+                }
+                out.write(new byte[]{AUTH_VERSION, AUTH_SUCCESS});
+            }
+            else {
+                out.write(new byte[]{VERSION, NO_ACCEPTABLE});
+                return;
+            }
+            next(parser, client, in, buffer, deadline);
+            metrics.handshake.record(Metrics.micros(acceptedAt));
+            if (parser.getCommand() != Socks5Parser.CONNECT) {
+                fail(out, Connect.COMMAND_NOT_SUPPORTED);
+                return;
+            }
+            if (acl != null && !allowed(client.getInetAddress(), parser)) {
+                metrics.aclDenied.increment();
+                fail(out, Connect.NOT_ALLOWED);
+                return;
+            }
+            try (Socket remote = connect(client.getInetAddress(), parser, out)) {
+                if (remote != null) {
+                    relay(client, remote, buffer, user);
+                }
+            }
+        } catch (IOException e) {
+            if (Log.sampled()) {
+                Log.debug("Client failed: " + e);
+            }
+        } finally {
+            metrics.activeClients.decrement();
+        }
+    }
+
+    // SO_TIMEOUT действует на одно чтение, поэтому перед каждым чтением он урезается до остатка общего срока рукопожатия
+    private void next(Socks5Parser parser, Socket client, InputStream in, ByteBuffer buffer, long deadline) throws IOException {
+        while (parser.parse(buffer) == Socks5Parser.Result.NEED_MORE) {
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                throw new ProtocolException("Request too large");
+            }
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) {
+                throw new SocketTimeoutException("Handshake timeout");
+            }
+            client.setSoTimeout((int) left);
+            int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (read == -1) {
+                throw new EOFException();
+            }
+            buffer.position(buffer.position() + read).flip();
+        }
+    }
+
+    private boolean allowed(InetAddress source, Socks5Parser parser) {
+        if (parser.getDomain() == null) {
+            return acl.allows(source, parser.getAddress(), parser.getPort());
+        }
+        return acl.allows(source, parser.getDomain(), parser.getPort());
+    }
+
+    private Socket connect(InetAddress source, Socks5Parser parser, OutputStream out) throws IOException {
+        InetAddress[] addresses;
+        if (parser.getDomain() == null) {
+            addresses = new InetAddress[]{parser.getAddress()};
+        }
+        else {
+            long started = System.nanoTime();
+            metrics.dnsQueries.increment();
+            try {
+                addresses = InetAddress.getAllByName(parser.getDomain());
+            } catch (UnknownHostException e) {
+                metrics.dnsFailures.increment();
+                fail(out, Connect.HOST_UNREACHABLE);
+                return null;
+            }
+            metrics.dns.record(Metrics.micros(started));
+            if (acl != null) {
+                addresses = acl.filterResolved(source, addresses, parser.getPort());
+                if (addresses.length == 0) {
+                    metrics.aclDenied.increment();
+                    fail(out, Connect.NOT_ALLOWED);
+                    return null;
+                }
+            }
+        }
+        long started = System.nanoTime();
+        for (InetAddress address : addresses) {
+            Socket remote = new Socket();
+            try {
+                remote.connect(new InetSocketAddress(address, parser.getPort()), connectTimeout);
+            } catch (IOException e) {
+                remote.close();
+                continue;
+            }
+            metrics.connect.record(Metrics.micros(started));
+            try {
+                out.write(Connect.reply(Connect.SUCCEEDED, unspecified));
+            } catch (IOException e) {
+                remote.close();
+                throw e;
+            }
+            return remote;
+        }
+        fail(out, Connect.CONNECTION_REFUSED);
+        return null;
+    }
+
+    private void fail(OutputStream out, byte reply) throws IOException {
+        metrics.connectFailures.increment();
+        out.write(Connect.reply(reply, unspecified));
+    }
+
+    private void relay(Socket client, Socket remote, ByteBuffer early, Credentials.User user) throws IOException {
+        Tunnel tunnel = new Tunnel(client, remote, user);
+        metrics.tunnelsOpened.increment();
+        metrics.activeTunnels.increment();
+        if (user != null) {
+            user.connections.increment();
+            user.active.increment();
+        }
+        try {
+            if (early.hasRemaining()) {
+                remote.getOutputStream().write(early.array(), early.position(), early.remaining());
+                tunnel.count(true, early.remaining());
+            }
+            client.setSoTimeout((int) idleTimeout);
+            remote.setSoTimeout((int) idleTimeout);
+            Thread upstream = Thread.ofVirtual().name("socks-upstream").start(() -> tunnel.pump(client, remote, true));
+            tunnel.pump(remote, client, false);
+            upstream.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            metrics.activeTunnels.decrement();
+            if (user != null) {
+                user.active.decrement();
+            }
+        }
+    }
+
+    private class Tunnel {
+        private final Socket client;
+        private final Socket remote;
+        private final Credentials.User user;
+        private final long openedAt = System.nanoTime();
+        private volatile long lastActivity = System.nanoTime();
+        private boolean firstByte = true;
+
+        private Tunnel(Socket client, Socket remote, Credentials.User user) {
+            this.client = client;
+            this.remote = remote;
+            this.user = user;
+        }
+
+        private void pump(Socket from, Socket to, boolean upstream) {
+            byte[] chunk = new byte[BUFFER];
+            try {
+                InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    int read;
+                    try {
+                        read = in.read(chunk);
+                    } catch (SocketTimeoutException e) {
+                        if ((System.nanoTime() - lastActivity) / 1_000_000 < idleTimeout) {
+                            continue;
+                        }
+                        throw e;
+                    }
+                    if (read == -1) {
+                        to.shutdownOutput();
+                        return;
+                    }
+                    lastActivity = System.nanoTime();
+                    count(upstream, read);
+                    out.write(chunk, 0, read);
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void count(boolean upstream, long bytes) {
+            if (upstream) {
+                metrics.bytesUpstream.add(bytes);
+                if (user != null) {
+                    user.bytesUpstream.add(bytes);
+                }
+                return;
+            }
+            if (firstByte) {
+                firstByte = false;
+                metrics.firstByte.record(Metrics.micros(openedAt));
+            }
+            metrics.bytesDownstream.add(bytes);
+            if (user != null) {
+                user.bytesDownstream.add(bytes);
+            }
+        }
+
+        private void close() {
+            try {
+                client.close();
+            } catch (IOException ignored) {}
+            try {
+                remote.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
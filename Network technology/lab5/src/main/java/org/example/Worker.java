@@ -0,0 +1,303 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class Worker implements Runnable {
+    private final Selector selector;
+    private final DNSResolver resolver;
+    private final Timers timers;
+    private final BufferPool buffers;
+    private final Metrics metrics;
+    private final Credentials credentials;
+    private final Shaper shaper;
+    private final Acl acl;
+    private final Chain chain;
+    private final Capture capture;
+    private final Set<Proxy> tunnels = ConcurrentHashMap.newKeySet();
+    private final UpstreamPool pool;
+    private final int relaySegments;
+    private final long quantum;
+    private final int rounds;
+    private final ArrayDeque<SelectionKey> ready = new ArrayDeque<>();
+    private final long attemptDelay;
+    private final long handshakeTimeout;
+    private final long connectTimeout;
+    private final long idleTimeout;
+    private final long bindTimeout;
+    private final long udpTimeout;
+    private final long udpPeerTimeout;
+    private final int udpMaxPeers;
+    private final int udpBatch;
+    private final int udpReceiveBuffer;
+    private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+
+    public Worker(Config config, DNSCache cache, Credentials credentials, Shaper shaper, Acl acl, Chain chain,
+                  Capture capture, Metrics metrics) throws IOException {
+        this.metrics = metrics;
+        this.credentials = credentials;
+        this.shaper = shaper;
+        this.acl = acl;
+        this.chain = chain;
+        this.capture = capture;
+        selector = Selector.open();
+        timers = new Timers(config.getLong("timers.tick", 10));
+        buffers = new BufferPool(config.getBoolean("buffers.leakDetection", false));
+        resolver = new DNSResolver(selector, cache, timers, buffers, metrics, config);
+        pool = new UpstreamPool(selector, timers, resolver, config);
+        attemptDelay = config.getLong("connect.attemptDelay", 250);
+        handshakeTimeout = config.getLong("timeout.handshake", 10000);
+        connectTimeout = config.getLong("timeout.connect", 15000);
+        idleTimeout = config.getLong("timeout.idle", 300000);
+        bindTimeout = config.getLong("timeout.bind", 120000);
+        udpTimeout = config.getLong("udp.timeout", 120000);
+        udpPeerTimeout = config.getLong("udp.peerTimeout", 60000);
+        udpMaxPeers = config.getInt("udp.maxPeers", 64);
+        udpBatch = config.getInt("udp.batch", 64);
+        udpReceiveBuffer = config.getInt("udp.receiveBuffer", 1 << 20);
+        quantum = config.getLong("schedule.quantum", 32768);
+        rounds = config.getInt("schedule.rounds", 4);
+        if (quantum < 1 || rounds < 1) {
+            throw new IllegalArgumentException("schedule.quantum and schedule.rounds must be positive");
+        }
+        String relay = config.getString("relay", "copy");
+        switch (relay) {
+            case "copy" -> relaySegments = 1;
+            case "gather" -> relaySegments = config.getInt("relay.segments", 4);
+            default -> throw new IllegalArgumentException("Unknown relay mode: " + relay);
+        }
+    }
+
+    public Selector getSelector() {
+        return selector;
+    }
+
+    public DNSResolver getResolver() {
+        return resolver;
+    }
+
+    public BufferPool getBuffers() {
+        return buffers;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Credentials getCredentials() {
+        return credentials;
+    }
+
+    public Shaper getShaper() {
+        return shaper;
+    }
+
+    public Acl getAcl() {
+        return acl;
+    }
+
+    public Chain getChain() {
+        return chain;
+    }
+
+    public Capture getCapture() {
+        return capture;
+    }
+
+    public Set<Proxy> getTunnels() {
+        return tunnels;
+    }
+
+    public Timers getTimers() {
+        return timers;
+    }
+
+    public UpstreamPool getPool() {
+        return pool;
+    }
+
+    public long getAttemptDelay() {
+        return attemptDelay;
+    }
+
+    public long getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public long getBindTimeout() {
+        return bindTimeout;
+    }
+
+    public long getUdpTimeout() {
+        return udpTimeout;
+    }
+
+    public long getUdpPeerTimeout() {
+        return udpPeerTimeout;
+    }
+
+    public int getUdpMaxPeers() {
+        return udpMaxPeers;
+    }
+
+    public int getUdpBatch() {
+        return udpBatch;
+    }
+
+    public int getUdpReceiveBuffer() {
+        return udpReceiveBuffer;
+    }
+
+    public int getRelaySegments() {
+        return relaySegments;
+    }
+
+    public void register(SocketChannel client) {
+        accepted.add(client);
+        selector.wakeup();
+    }
+
+    private void registerAccepted() {
+        SocketChannel client;
+        while ((client = accepted.poll()) != null) {
+            try {
+                client.configureBlocking(false);
+                metrics.activeClients.increment();
+                client.register(selector, SelectionKey.OP_READ, new Handshake(client, this));
+            } catch (IOException | RuntimeException e) {
+                metrics.activeClients.decrement();
+                try {
+                    client.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        pool.fillAll();
+        while (true) {
+            try {
+                selector.select(timers.nextDelay());
+            } catch (IOException e) {
+                Log.error("Selector failed: " + e);
+                return;
+            }
+            registerAccepted();
+            resolver.runShared();
+            timers.runExpired();
+            for (SelectionKey key : selector.selectedKeys()) {
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        ((Bind) key.attachment()).accept(key);
+                        continue;
+                    }
+                    if (key.isConnectable()) {
+                        if (key.attachment() instanceof Connect connect) {
+                            connect.finishConnect(key);
+                        }
+                        else if (key.attachment() instanceof ParentHandshake handshake) {
+                            handshake.finishConnect(key);
+                        }
+                        else {
+                            pool.finishConnect(key);
+                        }
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        ((Proxy) key.attachment()).write(key);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        Object att = key.attachment();
+                        if (att instanceof DNSResolver dns) {
+                            dns.read();
+                            continue;
+                        }
+                        if (att instanceof Handshake handshake) {
+                            handshake.doHandshake(key);
+                        }
+                        else if (att instanceof Proxy) {
+                            ready.add(key);
+                        }
+                        else if (att instanceof UdpAssociation association) {
+                            association.read(key);
+                        }
+                        else if (att instanceof Bind bind) {
+                            bind.read(key);
+                        }
+                        else if (att instanceof ParentHandshake handshake) {
+                            handshake.read(key);
+                        }
+                        else if (att instanceof UpstreamPool.Pooled) {
+                            pool.read(key);
+                        }
+                    }
+                } catch (Exception e) {
+                    Object att = key.attachment();
+                    if (att instanceof Proxy proxy) {
+                        proxy.close();
+                        continue;
+                    }
+                    if (att instanceof Handshake handshake) {
+                        handshake.close();
+                    }
+                    else if (att instanceof Connect connect) {
+                        connect.close();
+                    }
+                    else if (att instanceof UdpAssociation association) {
+                        association.close();
+                        continue;
+                    }
+                    else if (att instanceof Bind bind) {
+                        bind.close();
+                        continue;
+                    }
+                    else if (att instanceof ParentHandshake handshake) {
+                        handshake.failed();
+                        continue;
+                    }
+                    try {
+                        key.channel().close();
+                    } catch (Exception ignored) {}
+                    key.cancel();
+                }
+            }
+            selector.selectedKeys().clear();
+            runTunnels();
+        }
+    }
+
+    private void runTunnels() {
+        for (int round = 0; round < rounds && !ready.isEmpty(); round++) {
+            for (int i = ready.size(); i > 0; i--) {
+                SelectionKey key = ready.poll();
+                Proxy proxy = (Proxy) key.attachment();
+                try {
+                    if (key.isValid() && proxy.transfer(key, quantum)) {
+                        ready.add(key);
+                    }
+                } catch (Exception e) {
+                    proxy.close();
+                }
+            }
+        }
+        ready.clear();
+    }
+}